@@ -0,0 +1,81 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ticket.booking.entities.User;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserBookingService#loginUser} (dominated by bcrypt, see {@code -Dbcrypt.workFactor}) and
+ * {@link UserBookingService#signUp} with a pre-hashed password, i.e. the index and event log cost of a signup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private Path dataDir;
+    private UserBookingService service;
+    private String hashedPassword;
+    private final AtomicLong signUps = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.prepare(new DataGenerator(10, 20, 12, users, 0, 42));
+        service = new UserBookingService();
+        hashedPassword = BenchmarkData.hashForBenchmarks();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public User login(Caller caller) throws IOException {
+        return new UserBookingService().loginUser(DataGenerator.email(caller.random.nextInt(users)), DataGenerator.PASSWORD);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public User loginConcurrent(Caller caller) throws IOException {
+        return new UserBookingService().loginUser(DataGenerator.email(caller.random.nextInt(users)), DataGenerator.PASSWORD);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Boolean signUp() {
+        return signUpNext();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Boolean signUpConcurrent() {
+        return signUpNext();
+    }
+
+    private Boolean signUpNext() {
+        long n = signUps.incrementAndGet();
+        User user = new User("Signup " + n, "signup" + n + "@bench.example", String.valueOf(8_000_000_000L + n),
+                null, hashedPassword, new ArrayList<>(), null);
+        return service.signUp(user);
+    }
+}
@@ -0,0 +1,53 @@
+package ticket.booking.bench;
+
+import ticket.booking.persistence.DataFiles;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Points the services at a freshly generated dataset. The services load their data once per JVM, so this must
+ * run before any of them is touched, and each trial needs its own fork (the benchmarks use {@code @Fork(1)}).
+ */
+public final class BenchmarkData {
+
+    // bcrypt cost used by the benchmarks unless -Dbcrypt.workFactor says otherwise
+    private static final String DEFAULT_WORK_FACTOR = "10";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates the dataset into a temporary directory and makes it the services' data directory.
+     */
+    public static Path prepare(DataGenerator generator) throws IOException {
+        Path dir = Files.createTempDirectory("irctc-bench");
+        generator.writeTo(dir, hashForBenchmarks());
+        System.setProperty(DataFiles.DATA_DIR_PROPERTY, dir.toString());
+        return dir;
+    }
+
+    /**
+     * A hash of {@link DataGenerator#PASSWORD} at the work factor the services will run with, so logins do not
+     * trigger re-hashing.
+     */
+    static String hashForBenchmarks() {
+        if (System.getProperty("bcrypt.workFactor") == null) {
+            System.setProperty("bcrypt.workFactor", DEFAULT_WORK_FACTOR);
+        }
+        return UserServiceUtil.hashPassword(DataGenerator.PASSWORD);
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
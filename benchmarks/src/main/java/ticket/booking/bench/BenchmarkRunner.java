@@ -0,0 +1,22 @@
+package ticket.booking.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar. Same options as the JMH launcher, but results default to JSON
+ * ({@code jmh-result.json}, or {@code -rff <file>}) unless {@code -rf} picks another format, so every run leaves a machine-readable
+ * report (throughput plus the p50..p99.99 percentiles of the sample-time mode) to compare between releases.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) options.addAll(List.of("-rf", "json"));
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,105 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.inventory.TrainInventory;
+import ticket.booking.service.TrainService;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserBookingService#bookTrainSeat} followed by cancelling the ticket again, so the inventory stays in
+ * a steady state however long the run. Each operation is two fsynced log appends. "OneTrain" puts every thread
+ * on the same train (contention on one inventory), "ManyTrains" spreads them over all trains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingBenchmark {
+
+    @Param({"1000"})
+    public int trains;
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"500"})
+    public int stations;
+
+    @Param({"12"})
+    public int stopsPerTrain;
+
+    private DataGenerator generator;
+    private Path dataDir;
+    private Train[] trainList;
+
+    @State(Scope.Thread)
+    public static class Passenger {
+        UserBookingService service;
+        User user;
+        Random random;
+
+        @Setup(Level.Trial)
+        public void logIn(BookingBenchmark benchmark, ThreadParams threads) throws IOException {
+            int index = threads.getThreadIndex() % benchmark.users;
+            service = new UserBookingService();
+            user = service.loginUser(DataGenerator.email(index), DataGenerator.PASSWORD);
+            if (user == null) throw new IllegalStateException("Could not log in " + DataGenerator.email(index));
+            random = new Random(index);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        generator = new DataGenerator(trains, stations, stopsPerTrain, users, 0, 42);
+        dataDir = BenchmarkData.prepare(generator);
+        TrainService trainService = TrainService.getInstance();
+        trainList = new Train[trains];
+        for (int i = 0; i < trains; i++) trainList[i] = trainService.getTrain(DataGenerator.trainNo(i));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Ticket bookAndCancel(Passenger passenger) {
+        return bookAndCancel(passenger, trainList[passenger.random.nextInt(trains)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Ticket bookAndCancelOneTrain(Passenger passenger) {
+        return bookAndCancel(passenger, trainList[0]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Ticket bookAndCancelManyTrains(Passenger passenger) {
+        return bookAndCancel(passenger, trainList[passenger.random.nextInt(trains)]);
+    }
+
+    private Ticket bookAndCancel(Passenger passenger, Train train) {
+        Random random = passenger.random;
+        int from = random.nextInt(stopsPerTrain - 1);
+        int to = from + 1 + random.nextInt(stopsPerTrain - 1 - from);
+        LocalDate date = LocalDate.now().plusDays(random.nextInt(TrainInventory.BOOKING_WINDOW_DAYS + 1));
+        Ticket ticket = passenger.service.bookTrainSeat(train, train.getStations().get(from), train.getStations().get(to),
+                random.nextInt(DataGenerator.COACHES), random.nextInt(DataGenerator.SEATS_PER_COACH), date, passenger.user);
+        if (ticket != null) passenger.service.cancelBooking(ticket.getTicketId());
+        return ticket;
+    }
+}
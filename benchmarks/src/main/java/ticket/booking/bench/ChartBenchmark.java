@@ -0,0 +1,57 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ticket.booking.service.ChartPreparation;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserBookingService#prepareCharts} over a million loaded tickets (100,000 users with 10 each). With
+ * {@code hours=24} a day's departures are charted, so the score is mostly the pass over every ticket; with
+ * {@code hours=2904} (the whole booking window) every ticket lands on a chart and every chart is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChartBenchmark {
+
+    @Param({"1000"})
+    public int trains;
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"10"})
+    public int ticketsPerUser;
+
+    @Param({"24", "2904"})
+    public int hours;
+
+    private Path dataDir;
+    private UserBookingService service;
+    private LocalDateTime from;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.prepare(new DataGenerator(trains, 500, 12, users, ticketsPerUser, 42));
+        service = new UserBookingService();
+        from = LocalDateTime.now();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    public ChartPreparation.Summary prepareCharts() throws IOException {
+        return service.prepareCharts(from, from.plusHours(hours), dataDir.resolve("charts"));
+    }
+}
@@ -0,0 +1,191 @@
+package ticket.booking.bench;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import ticket.booking.inventory.TrainInventory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Writes a synthetic trains.json/users.json pair in the layout the services load. Output is streamed, so
+ * datasets of a million users never sit in memory while being written, and is fully determined by the seed.
+ * <p>
+ * Every train runs {@code stopsPerTrain} consecutive stations (wrapping around) out of a pool of
+ * {@code stations}, starting at a random one; every user has the password {@link #PASSWORD} and
+ * {@code ticketsPerUser} tickets spread over the trains and the booking window. Tickets are written to
+ * users.json only, so they exercise loading and saving but do not hold seats.
+ * <p>
+ * Usage: {@code DataGenerator <dir> [trains] [stations] [stopsPerTrain] [users] [ticketsPerUser]}
+ */
+public final class DataGenerator {
+
+    public static final String PASSWORD = "bench-password";
+    public static final int COACHES = 10;
+    public static final int SEATS_PER_COACH = 6;
+
+    private static final JsonFactory JSON = new JsonFactory();
+    // same format as the sample trains.json
+    private static final DateTimeFormatter STATION_TIME = DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a", Locale.ENGLISH);
+
+    private final int trains;
+    private final int stations;
+    private final int stopsPerTrain;
+    private final int users;
+    private final int ticketsPerUser;
+    private final long seed;
+
+    public DataGenerator(int trains, int stations, int stopsPerTrain, int users, int ticketsPerUser, long seed) {
+        if (stopsPerTrain < 2 || stopsPerTrain > stations) {
+            throw new IllegalArgumentException("stopsPerTrain must be between 2 and the number of stations");
+        }
+        this.trains = trains;
+        this.stations = stations;
+        this.stopsPerTrain = stopsPerTrain;
+        this.users = users;
+        this.ticketsPerUser = ticketsPerUser;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: DataGenerator <dir> [trains] [stations] [stopsPerTrain] [users] [ticketsPerUser]");
+            return;
+        }
+        DataGenerator generator = new DataGenerator(
+                args.length > 1 ? Integer.parseInt(args[1]) : 1_000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 500,
+                args.length > 3 ? Integer.parseInt(args[3]) : 12,
+                args.length > 4 ? Integer.parseInt(args[4]) : 1_000,
+                args.length > 5 ? Integer.parseInt(args[5]) : 0,
+                42);
+        generator.writeTo(Path.of(args[0]), BenchmarkData.hashForBenchmarks());
+    }
+
+    public static String stationName(int index) {
+        return "station-" + index;
+    }
+
+    public static String trainNo(int index) {
+        return String.valueOf(100_000 + index);
+    }
+
+    public static String email(int index) {
+        return "user" + index + "@bench.example";
+    }
+
+    /**
+     * Index of the first station of train {@code train}; stop {@code k} is station {@code (first + k) % stations}.
+     */
+    public int firstStation(int train) {
+        return new Random(seed + train).nextInt(stations);
+    }
+
+    public int getTrains() {
+        return trains;
+    }
+
+    public int getStations() {
+        return stations;
+    }
+
+    public int getStopsPerTrain() {
+        return stopsPerTrain;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getTicketsPerUser() {
+        return ticketsPerUser;
+    }
+
+    /**
+     * Writes trains.json and users.json into {@code dir}, replacing any existing data and event logs there.
+     */
+    public void writeTo(Path dir, String hashedPassword) throws IOException {
+        Files.createDirectories(dir);
+        try (var files = Files.newDirectoryStream(dir, "bookings*.log*")) {
+            for (Path log : files) Files.delete(log); // bookings.log and the per-shard bookings-<n>.log
+        }
+        Files.deleteIfExists(dir.resolve("trains.bin")); // would otherwise win over the fresh trains.json
+        writeTrains(dir.resolve("trains.json"));
+        writeUsers(dir.resolve("users.json"), hashedPassword);
+    }
+
+    private void writeTrains(Path file) throws IOException {
+        LocalDateTime departure = LocalDate.now().atTime(6, 0);
+        try (JsonGenerator json = JSON.createGenerator(file.toFile(), JsonEncoding.UTF8)) {
+            json.writeStartArray();
+            for (int t = 0; t < trains; t++) {
+                int first = firstStation(t);
+                json.writeStartObject();
+                json.writeStringField("trainNo", trainNo(t));
+                json.writeStringField("trainName", "Bench Express " + t);
+                json.writeArrayFieldStart("seats");
+                for (int c = 0; c < COACHES; c++) {
+                    json.writeStartArray();
+                    for (int s = 0; s < SEATS_PER_COACH; s++) json.writeNumber(0);
+                    json.writeEndArray();
+                }
+                json.writeEndArray();
+                json.writeObjectFieldStart("stationTimes");
+                for (int k = 0; k < stopsPerTrain; k++) {
+                    json.writeStringField(stationName((first + k) % stations),
+                            departure.plusMinutes(45L * k).format(STATION_TIME));
+                }
+                json.writeEndObject();
+                json.writeArrayFieldStart("stations");
+                for (int k = 0; k < stopsPerTrain; k++) json.writeString(stationName((first + k) % stations));
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+        }
+    }
+
+    private void writeUsers(Path file, String hashedPassword) throws IOException {
+        Random random = new Random(seed);
+        LocalDate today = LocalDate.now();
+        try (JsonGenerator json = JSON.createGenerator(file.toFile(), JsonEncoding.UTF8)) {
+            json.writeStartArray();
+            for (int u = 0; u < users; u++) {
+                json.writeStartObject();
+                json.writeStringField("name", "Bench User " + u);
+                json.writeStringField("email", email(u));
+                json.writeStringField("phoneNumber", String.valueOf(9_000_000_000L + u));
+                json.writeStringField("hashedPassword", hashedPassword);
+                json.writeArrayFieldStart("ticketsBooked");
+                for (int k = 0; k < ticketsPerUser; k++) {
+                    int train = random.nextInt(trains);
+                    int from = random.nextInt(stopsPerTrain - 1);
+                    int to = from + 1 + random.nextInt(stopsPerTrain - 1 - from);
+                    json.writeStartObject();
+                    json.writeStringField("ticketId", new UUID(~seed, (long) u * ticketsPerUser + k).toString());
+                    json.writeStringField("trainNo", trainNo(train));
+                    json.writeStringField("trainName", "Bench Express " + train);
+                    json.writeStringField("source", stationName((firstStation(train) + from) % stations));
+                    json.writeStringField("destination", stationName((firstStation(train) + to) % stations));
+                    json.writeStringField("travelDate", today.plusDays(random.nextInt(TrainInventory.BOOKING_WINDOW_DAYS + 1)).toString());
+                    json.writeStringField("passengerName", "Bench User " + u);
+                    json.writeNumberField("row", random.nextInt(COACHES));
+                    json.writeNumberField("seat", random.nextInt(SEATS_PER_COACH));
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+                json.writeStringField("userId", new UUID(seed, u).toString());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+        }
+    }
+}
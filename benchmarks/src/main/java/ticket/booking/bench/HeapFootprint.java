@@ -0,0 +1,51 @@
+package ticket.booking.bench;
+
+import ticket.booking.service.TrainService;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+
+/**
+ * Heap held by the loaded users and their tickets: generates a dataset, loads the trains, then measures live
+ * heap before and after the booking store loads users.json. Run it once with and once without tickets to
+ * separate the cost of a ticket from that of a user.
+ * <p>
+ * Usage: {@code HeapFootprint [users] [ticketsPerUser] [trains]} (default 100,000 users, 10 tickets each,
+ * 1,000 trains). Give the JVM enough heap ({@code -Xmx}) that loading does not run out.
+ */
+public final class HeapFootprint {
+
+    private HeapFootprint() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int ticketsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int trains = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        Path dataDir = BenchmarkData.prepare(new DataGenerator(trains, 500, 12, users, ticketsPerUser, 42));
+        try {
+            TrainService.getInstance().awaitLoaded();
+            long before = liveHeap();
+            new UserBookingService(); // loads the process-wide store, which stays reachable
+            long after = liveHeap();
+            System.out.printf("%,d users, %,d tickets each: %,d bytes live after loading, %,d per user%n",
+                    users, ticketsPerUser, after - before, (after - before) / Math.max(1, users));
+        } finally {
+            BenchmarkData.delete(dataDir);
+        }
+    }
+
+    // used heap once a few full collections have settled it
+    private static long liveHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
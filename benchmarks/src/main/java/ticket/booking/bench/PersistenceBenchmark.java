@@ -0,0 +1,57 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ticket.booking.service.TrainService;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JSON save paths: {@link UserBookingService#compact()} writes users.json and trains.json, and
+ * {@link TrainService#snapshot()} serializes the trains with their seat occupancy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    @Param({"2"})
+    public int ticketsPerUser;
+
+    @Param({"1000"})
+    public int trains;
+
+    private Path dataDir;
+    private UserBookingService service;
+    private TrainService trainService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.prepare(new DataGenerator(trains, 500, 12, users, ticketsPerUser, 42));
+        service = new UserBookingService();
+        trainService = TrainService.getInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        service.compact();
+    }
+
+    @Benchmark
+    public byte[] trainSnapshot() throws IOException {
+        return trainService.snapshot();
+    }
+}
@@ -0,0 +1,90 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ticket.booking.entities.Train;
+import ticket.booking.service.TrainService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TrainService#searchTrains} over generated timetables. Half of the queries follow a real route (a hit),
+ * half pair two random stations (usually a miss).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    @Param({"1000", "100000"})
+    public int trains;
+
+    @Param({"2000"})
+    public int stations;
+
+    @Param({"12"})
+    public int stopsPerTrain;
+
+    private Path dataDir;
+    private TrainService trainService;
+    private String[] sources;
+    private String[] destinations;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DataGenerator generator = new DataGenerator(trains, stations, stopsPerTrain, 0, 0, 42);
+        dataDir = BenchmarkData.prepare(generator);
+        trainService = TrainService.getInstance();
+
+        Random random = new Random(7);
+        sources = new String[QUERIES];
+        destinations = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            if (i % 2 == 0) {
+                int train = random.nextInt(trains);
+                int from = random.nextInt(stopsPerTrain - 1);
+                int to = from + 1 + random.nextInt(stopsPerTrain - 1 - from);
+                sources[i] = DataGenerator.stationName((generator.firstStation(train) + from) % stations);
+                destinations[i] = DataGenerator.stationName((generator.firstStation(train) + to) % stations);
+            } else {
+                sources[i] = DataGenerator.stationName(random.nextInt(stations));
+                destinations[i] = DataGenerator.stationName(random.nextInt(stations));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Train> search(Cursor cursor) {
+        return next(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<Train> searchConcurrent(Cursor cursor) {
+        return next(cursor);
+    }
+
+    private List<Train> next(Cursor cursor) {
+        int i = cursor.next++ & (QUERIES - 1);
+        return trainService.searchTrains(sources[i], destinations[i]);
+    }
+}
@@ -0,0 +1,99 @@
+package ticket.booking.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.service.SurgeResult;
+import ticket.booking.service.TrainService;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tatkal window opening on one train: every thread is a different user who keeps asking for a seat over the
+ * whole route through {@link UserBookingService#bookTatkal} until told the train is sold out, retrying at once
+ * when shed. Each iteration opens surge mode on a fresh date, so the score is the time from the window opening
+ * to the last thread seeing the train sold out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class TatkalSurgeBenchmark {
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"500"})
+    public int stations;
+
+    @Param({"12"})
+    public int stopsPerTrain;
+
+    private Path dataDir;
+    private Train train;
+    private String source;
+    private String destination;
+    private LocalDate travelDate;
+    private int iteration;
+
+    @State(Scope.Thread)
+    public static class Passenger {
+        UserBookingService service;
+        User user;
+
+        @Setup(Level.Trial)
+        public void logIn(TatkalSurgeBenchmark benchmark, ThreadParams threads) throws IOException {
+            int index = threads.getThreadIndex() % benchmark.users;
+            service = new UserBookingService();
+            user = service.loginUser(DataGenerator.email(index), DataGenerator.PASSWORD);
+            if (user == null) throw new IllegalStateException("Could not log in " + DataGenerator.email(index));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.prepare(new DataGenerator(1, stations, stopsPerTrain, users, 0, 42));
+        TrainService trainService = TrainService.getInstance();
+        trainService.awaitLoaded();
+        train = trainService.getTrain(DataGenerator.trainNo(0));
+        List<String> route = train.getStations();
+        source = route.get(0);
+        destination = route.get(route.size() - 1);
+    }
+
+    // a date nobody has booked yet, in surge mode before any thread starts
+    @Setup(Level.Iteration)
+    public void openWindow() throws IOException {
+        travelDate = LocalDate.now().plusDays(1 + iteration++);
+        new UserBookingService().openSurge(train, travelDate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int untilSoldOut(Passenger passenger) {
+        int booked = 0;
+        while (true) {
+            SurgeResult result = passenger.service.bookTatkal(train, source, destination, travelDate, passenger.user);
+            switch (result.status()) {
+                case BOOKED -> booked++;
+                case RETRY_LATER -> Thread.yield();
+                default -> {
+                    return booked;
+                }
+            }
+        }
+    }
+}
@@ -3,12 +3,18 @@ package ticket.booking;
 import ticket.booking.entities.Ticket;
 import ticket.booking.entities.Train;
 import ticket.booking.entities.User;
+import ticket.booking.index.ConnectionIndex;
+import ticket.booking.inventory.SeatPreference;
+import ticket.booking.service.AvailabilityCache;
+import ticket.booking.service.SurgeResult;
 import ticket.booking.service.UserBookingService;
 import ticket.booking.util.UserServiceUtil;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
@@ -17,7 +23,8 @@ public class Main {
     private static final Scanner scanner = new Scanner(System.in);
     private static User currentUser;
     private static UserBookingService userService;
-    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
 
     public static void main(String[] args) {
         try {
@@ -118,15 +125,31 @@ public class Main {
             System.out.print("Enter destination station: ");
             String destination = scanner.nextLine().trim();
 
-            List<Train> trains = userService.getTrains(source, destination);
+            System.out.print("Enter travel date (dd-MM-yyyy): ");
+            String travelInput = scanner.nextLine().trim();
+
+            // validate travel date
+            LocalDate travelDate;
+            try {
+                travelDate = LocalDate.parse(travelInput, DATE_FORMAT);
+            } catch (Exception e) {
+                System.out.println("Invalid date format, using today's date instead.");
+                travelDate = LocalDate.now();
+            }
+
+            List<AvailabilityCache.TrainAvailability> trains = userService.searchAvailability(source, destination, travelDate);
+            if (trains == null) return;
             if (trains.isEmpty()) {
-                System.out.println("No trains found for this route.");
+                System.out.println("No direct trains found for this route.");
+                showConnections(source, destination, travelDate);
                 return;
             }
 
-            System.out.println("\nAvailable Trains:");
+            System.out.println("\nAvailable Trains on " + travelDate.format(DATE_FORMAT) + ":");
             for (int i = 0; i < trains.size(); i++) {
-                System.out.println((i + 1) + ". " + trains.get(i).getTrainInfo());
+                AvailabilityCache.TrainAvailability available = trains.get(i);
+                System.out.println((i + 1) + ". " + available.train().getTrainInfo()
+                        + " | Seats free: " + available.freeSeats());
             }
 
             System.out.print("Select a train number to book: ");
@@ -136,31 +159,43 @@ public class Main {
                 return;
             }
 
-            Train selectedTrain = trains.get(trainChoice - 1);
-            showSeatMatrix(selectedTrain);
+            Train selectedTrain = trains.get(trainChoice - 1).train();
+
+            if (userService.isSurgeOpen(selectedTrain, travelDate)) {
+                // tatkal: no seat picking, the queue assigns one
+                SurgeResult result = userService.bookTatkal(selectedTrain, source, destination, travelDate, currentUser);
+                if (result.isBooked()) {
+                    System.out.println("✅ Tatkal seat booked!");
+                    System.out.println(result.ticket().getTicketInfo());
+                } else {
+                    System.out.println("❌ Tatkal booking failed: " + result.message());
+                }
+                return;
+            }
+
+            System.out.print("Pick seats automatically? (y/n): ");
+            if (readYes()) {
+                autoBook(selectedTrain, source, destination, travelDate);
+                return;
+            }
+
+            // the full layout is only needed to pick a seat by hand
+            List<List<Integer>> seats = userService.getSeatAvailability(selectedTrain, source, destination, travelDate);
+            if (seats == null) return;
+            showSeatMatrix(seats, source, destination, travelDate);
 
             System.out.print("Enter row number (0-based): ");
             int row = readInt();
             System.out.print("Enter seat number (0-based): ");
             int seat = readInt();
 
-            System.out.print("Enter travel date (dd-MM-yyyy hh:mm AM/PM): ");
-            String travelInput = scanner.nextLine().trim();
-
-            // validate travel date
-            try {
-                LocalDateTime.parse(travelInput, DATE_FORMAT);
-            } catch (Exception e) {
-                System.out.println("Invalid date format, using current time instead.");
-                travelInput = LocalDateTime.now().format(DATE_FORMAT);
-            }
-
-            Ticket ticket = userService.bookTrainSeat(selectedTrain, row, seat, travelInput, currentUser);
+            Ticket ticket = userService.bookTrainSeat(selectedTrain, source, destination, row, seat, travelDate, currentUser);
             if (ticket != null) {
                 System.out.println("✅ Seat booked successfully!");
                 System.out.println(ticket.getTicketInfo());
             } else {
                 System.out.println("❌ Booking failed. Seat may already be booked.");
+                offerWaitlist(selectedTrain, source, destination, travelDate);
             }
 
         } catch (Exception e) {
@@ -168,14 +203,86 @@ public class Main {
         }
     }
 
+    // ---------------- CONNECTIONS ----------------
+    private static void showConnections(String source, String destination, LocalDate travelDate) {
+        LocalDateTime departAfter = travelDate.equals(LocalDate.now()) ? LocalDateTime.now() : travelDate.atStartOfDay();
+        ConnectionIndex.Journey journey = userService.planJourney(source, destination, departAfter);
+        if (journey == null) {
+            System.out.println("No connections found either.");
+            return;
+        }
+        System.out.println("\nFastest connection (" + journey.changes() + " change(s)), arriving "
+                + journey.arrival().format(TIME_FORMAT) + ":");
+        for (ConnectionIndex.Leg leg : journey.legs()) {
+            System.out.println("  " + leg.train().getTrainInfo() + " | " + leg.from() + " " + leg.departure().format(TIME_FORMAT)
+                    + " -> " + leg.to() + " " + leg.arrival().format(TIME_FORMAT));
+        }
+        System.out.println("Book each leg separately from the search menu.");
+    }
+
+    // ---------------- AUTO SEAT ASSIGNMENT ----------------
+    private static void autoBook(Train train, String source, String destination, LocalDate travelDate) {
+        System.out.print("Number of seats: ");
+        int count = readInt();
+        if (count < 1) {
+            System.out.println("Invalid number of seats.");
+            return;
+        }
+        System.out.print("Prefer window seats? (y/n): ");
+        boolean window = readYes();
+        boolean together = false;
+        if (count > 1) {
+            System.out.print("Seat everyone side by side? (y/n): ");
+            together = readYes();
+        }
+
+        List<Ticket> tickets = userService.autoBook(train, source, destination, travelDate, count,
+                new SeatPreference(window, together, together), currentUser);
+        if (tickets.isEmpty()) {
+            System.out.println("❌ Booking failed. Not enough seats available.");
+            if (count == 1) offerWaitlist(train, source, destination, travelDate);
+            return;
+        }
+        System.out.println("✅ " + tickets.size() + " seat(s) booked successfully!");
+        tickets.forEach(ticket -> System.out.println(ticket.getTicketInfo()));
+    }
+
+    // ---------------- WAITLIST ----------------
+    private static void offerWaitlist(Train train, String source, String destination, LocalDate travelDate) {
+        System.out.print("Book any free seat, or join the waitlist if the train is full? (y/n): ");
+        if (!readYes()) return;
+        Ticket ticket = userService.bookOrWaitlist(train, source, destination, travelDate, currentUser);
+        if (ticket == null) {
+            System.out.println("❌ Booking failed. The waitlist is full as well.");
+            return;
+        }
+        if (ticket.isWaitlisted()) {
+            System.out.println("⏳ Waitlisted at position " + userService.getWaitlistPosition(ticket.getTicketId())
+                    + ". You will get a seat automatically when one is cancelled.");
+        } else {
+            System.out.println("✅ Seat booked successfully!");
+        }
+        System.out.println(ticket.getTicketInfo());
+    }
+
     // ---------------- VIEW BOOKINGS ----------------
     private static void viewBookings() {
-        if (currentUser.getTicketsBooked() == null || currentUser.getTicketsBooked().isEmpty()) {
+        // the projector thread updates the list under the user's lock, so print a copy taken under it
+        List<Ticket> tickets;
+        synchronized (currentUser) {
+            tickets = currentUser.getTicketsBooked() == null ? List.of() : new ArrayList<>(currentUser.getTicketsBooked());
+        }
+        if (tickets.isEmpty()) {
             System.out.println("No bookings yet.");
             return;
         }
         System.out.println("\nYour Bookings:");
-        currentUser.printTickets();
+        tickets.forEach(ticket -> System.out.println(ticket.getTicketInfo()));
+        for (Ticket ticket : tickets) {
+            if (!ticket.isWaitlisted()) continue;
+            System.out.println("Ticket " + ticket.getTicketId() + " is waitlisted at position "
+                    + userService.getWaitlistPosition(ticket.getTicketId()));
+        }
     }
 
     // ---------------- CANCEL BOOKING ----------------
@@ -189,9 +296,9 @@ public class Main {
     }
 
     // ---------------- DISPLAY SEATS ----------------
-    private static void showSeatMatrix(Train train) {
-        System.out.println("\nSeat Layout (0 = available, 1 = booked):");
-        List<List<Integer>> seats = train.getSeats();
+    private static void showSeatMatrix(List<List<Integer>> seats, String source, String destination, LocalDate travelDate) {
+        System.out.println("\nSeat Layout from " + source + " to " + destination + " on " + travelDate.format(DATE_FORMAT)
+                + " (0 = available, 1 = booked):");
         for (int i = 0; i < seats.size(); i++) {
             System.out.print("Row " + i + ": ");
             for (int j = 0; j < seats.get(i).size(); j++) {
@@ -202,6 +309,10 @@ public class Main {
     }
 
     // ---------------- UTILITY ----------------
+    private static boolean readYes() {
+        return scanner.nextLine().trim().toLowerCase().startsWith("y");
+    }
+
     private static int readInt() {
         try {
             return Integer.parseInt(scanner.nextLine().trim());
@@ -0,0 +1,131 @@
+package ticket.booking.auth;
+
+import ticket.booking.entities.User;
+import ticket.booking.util.UserServiceUtil;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password verification and sessions.
+ * <p>
+ * BCrypt checks and the hashing of new passwords run on a pool with one thread per core and a bounded queue, so
+ * a login or sign-up storm cannot take more than the pool's share of CPU away from booking. Once the queue is
+ * full new logins and sign-ups are refused with
+ * {@link RejectedExecutionException} instead of piling up. A successful login opens a {@link Session} whose
+ * token lets later requests skip verification until it expires.
+ */
+public class AuthService {
+
+    private static final int QUEUE_PER_THREAD = 64;
+    private static final Duration DEFAULT_SESSION_TTL = Duration.ofMinutes(15);
+    private static final int SWEEP_EVERY = 1024;
+
+    private final ThreadPoolExecutor executor;
+    private final Duration sessionTtl;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Outcome of a successful password check. {@code rehashedPassword} is set when the stored hash used an older
+     * work factor and has been re-hashed with the current one; the caller should persist it.
+     */
+    public record Verified(User user, String rehashedPassword) {}
+
+    public AuthService(int threads, int queueCapacity, Duration sessionTtl) {
+        this.sessionTtl = sessionTtl;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static AuthService createDefault() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        return new AuthService(threads, threads * QUEUE_PER_THREAD, DEFAULT_SESSION_TTL);
+    }
+
+    /**
+     * Checks {@code password} against each candidate in turn on the auth pool. Completes with the first match,
+     * or null if none matches.
+     *
+     * @throws RejectedExecutionException if the auth queue is full
+     */
+    public CompletableFuture<Verified> authenticate(List<User> candidates, String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (User candidate : candidates) {
+                if (!UserServiceUtil.checkPassword(password, candidate.getHashedPassword())) continue;
+                String rehashed = UserServiceUtil.needsRehash(candidate.getHashedPassword())
+                        ? UserServiceUtil.hashPassword(password)
+                        : null;
+                return new Verified(candidate, rehashed);
+            }
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Hashes a new password on the auth pool.
+     *
+     * @throws RejectedExecutionException if the auth queue is full
+     */
+    public CompletableFuture<String> hash(String password) {
+        return CompletableFuture.supplyAsync(() -> UserServiceUtil.hashPassword(password), executor);
+    }
+
+    public Session openSession(User user) {
+        if (opened.incrementAndGet() % SWEEP_EVERY == 0) sweepExpired();
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, user.getUserId(), Instant.now().plus(sessionTtl));
+        sessions.put(token, session);
+        return session;
+    }
+
+    /**
+     * The live session for {@code token}, with its expiry pushed forward, or null if it is unknown or expired.
+     */
+    public Session resume(String token) {
+        if (token == null) return null;
+        Session session = sessions.get(token);
+        if (session == null) return null;
+        Instant now = Instant.now();
+        if (session.isExpired(now)) {
+            sessions.remove(token, session);
+            return null;
+        }
+        Session renewed = new Session(token, session.userId(), now.plus(sessionTtl));
+        sessions.replace(token, session, renewed);
+        return renewed;
+    }
+
+    public void closeSession(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    private void sweepExpired() {
+        Instant now = Instant.now();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "auth-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
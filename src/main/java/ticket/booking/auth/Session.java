@@ -0,0 +1,13 @@
+package ticket.booking.auth;
+
+import java.time.Instant;
+
+/**
+ * A verified login. Requests carrying the token are trusted until it expires, without re-checking the password.
+ */
+public record Session(String token, String userId, Instant expiresAt) {
+
+    public boolean isExpired(Instant now) {
+        return !now.isBefore(expiresAt);
+    }
+}
@@ -0,0 +1,38 @@
+package ticket.booking.entities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Ids of users and tickets are UUID strings; they are kept as {@link UUID}s (two longs) and only written out as
+ * text when asked for. Ids that are not UUIDs, e.g. from hand-edited files, are kept as given and keyed by a
+ * UUID derived from them.
+ */
+final class Ids {
+
+    private Ids() {
+    }
+
+    static UUID keyOf(String id) {
+        UUID uuid = parse(id);
+        return uuid != null ? uuid : UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The id as a UUID if it is one written the way {@link UUID#toString()} writes it, so it reads back the same;
+     * otherwise null.
+     */
+    static UUID parseCanonical(String id) {
+        UUID uuid = parse(id);
+        return uuid != null && uuid.toString().equals(id) ? uuid : null;
+    }
+
+    private static UUID parse(String value) {
+        if (value.length() != 36) return null;
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
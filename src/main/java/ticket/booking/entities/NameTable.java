@@ -0,0 +1,39 @@
+package ticket.booking.entities;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary of the names tickets repeat (train numbers and names, stations), so a ticket holds
+ * an int code per name and every ticket on a route shares one String. Codes are never reused and the table
+ * only grows, so it is for the few thousand names of the timetable only, never for per-passenger values.
+ */
+final class NameTable {
+
+    static final int NULL = -1;
+
+    private static final ConcurrentHashMap<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[1024]; // code -> name; replaced, never shrunk
+    private static int size; // guarded by NameTable.class
+
+    private NameTable() {
+    }
+
+    static int code(String name) {
+        if (name == null) return NULL;
+        Integer code = CODES.get(name);
+        return code != null ? code : CODES.computeIfAbsent(name, NameTable::add);
+    }
+
+    static String name(int code) {
+        return code == NULL ? null : names[code];
+    }
+
+    // The name is stored before computeIfAbsent publishes its code, so any reader holding the code finds it.
+    private static synchronized int add(String name) {
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        names = names; // volatile write publishes the new entry
+        return size++;
+    }
+}
@@ -1,66 +1,137 @@
 package ticket.booking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
 import java.util.UUID;
 
+/**
+ * A booked or waitlisted ticket. Millions of these stay in memory, so the fields are kept compact behind the
+ * String accessors the console and JSON use: the id as the two halves of its UUID, the travel date as an epoch
+ * day, and the train and station names as codes into a shared {@link NameTable}. Values that do not fit (a
+ * non-UUID id, a legacy travel date) are kept as given.
+ */
+// files written before tickets were normalized embed the whole train (and its info text) in every ticket
+@JsonIgnoreProperties(value = {"train", "ticketInfo"}, allowGetters = false)
+@JsonPropertyOrder({"ticketId", "trainNo", "trainName", "source", "destination", "travelDate", "passengerName", "row",
+        "seat", "waitlistNo"})
 public class Ticket {
-    private String ticketId;
-    private String trainNo;
-    private String trainName;
-    private String source;
-    private String destination;
-    private String travelDate;
-    private String passengerName;
+    // tickets booked before travel dates were real dates carry e.g. "16-10-2025 01:56 pm"
+    private static final DateTimeFormatter LEGACY_TRAVEL_DATE = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive().appendPattern("dd-MM-yyyy hh:mm a").toFormatter(Locale.ENGLISH);
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private long idHigh;
+    private long idLow;
+    private String otherTicketId; // only for ids that are not UUIDs
+    private int trainNo = NameTable.NULL;
+    private int trainName = NameTable.NULL;
+    private int source = NameTable.NULL;
+    private int destination = NameTable.NULL;
+    private String passengerName; // nearly unique, so not worth a NameTable entry
+    private int travelDay = NO_DATE; // epoch day
+    private String otherTravelDate; // only for dates not written as yyyy-MM-dd
     private int row;
     private int seat;
-    private Train train;
+    private long waitlistNo; // 0 once the ticket holds a seat
 
     public Ticket() {
-        this.ticketId = UUID.randomUUID().toString();
+        UUID id = UUID.randomUUID();
+        this.idHigh = id.getMostSignificantBits();
+        this.idLow = id.getLeastSignificantBits();
+    }
+
+    /**
+     * The key tickets are indexed by: the id itself if it is a UUID, otherwise a UUID derived from it.
+     */
+    public static UUID keyOf(String ticketId) {
+        return Ids.keyOf(ticketId);
+    }
+
+    @JsonIgnore
+    public UUID getKey() {
+        return otherTicketId == null ? new UUID(idHigh, idLow) : keyOf(otherTicketId);
     }
 
     // Getters & Setters
     public String getTicketId() {
-        return ticketId;
+        return otherTicketId == null ? new UUID(idHigh, idLow).toString() : otherTicketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        UUID uuid = ticketId == null ? null : Ids.parseCanonical(ticketId);
+        if (uuid != null) {
+            this.idHigh = uuid.getMostSignificantBits();
+            this.idLow = uuid.getLeastSignificantBits();
+            this.otherTicketId = null;
+        } else {
+            this.otherTicketId = ticketId;
+        }
     }
 
     public String getTrainNo() {
-        return trainNo;
+        return NameTable.name(trainNo);
     }
 
     public void setTrainNo(String trainNo) {
-        this.trainNo = trainNo;
+        this.trainNo = NameTable.code(trainNo);
     }
 
     public String getTrainName() {
-        return trainName;
+        return NameTable.name(trainName);
     }
 
     public void setTrainName(String trainName) {
-        this.trainName = trainName;
+        this.trainName = NameTable.code(trainName);
     }
 
     public String getSource() {
-        return source;
+        return NameTable.name(source);
     }
 
     public void setSource(String source) {
-        this.source = source;
+        this.source = NameTable.code(source);
     }
 
     public String getDestination() {
-        return destination;
+        return NameTable.name(destination);
     }
 
     public void setDestination(String destination) {
-        this.destination = destination;
+        this.destination = NameTable.code(destination);
     }
 
     public String getTravelDate() {
-        return travelDate;
+        if (otherTravelDate != null) return otherTravelDate;
+        return travelDay == NO_DATE ? null : LocalDate.ofEpochDay(travelDay).toString();
     }
 
     public void setTravelDate(String travelDate) {
-        this.travelDate = travelDate;
+        this.travelDay = NO_DATE;
+        this.otherTravelDate = null;
+        if (travelDate == null) return;
+        LocalDate date = parseDate(travelDate);
+        if (date != null && date.toString().equals(travelDate)) {
+            this.travelDay = (int) date.toEpochDay();
+        } else {
+            this.otherTravelDate = travelDate;
+        }
+    }
+
+    /**
+     * The travel date as a LocalDate, or null if it cannot be parsed.
+     */
+    @JsonIgnore
+    public LocalDate getTravelLocalDate() {
+        if (travelDay != NO_DATE) return LocalDate.ofEpochDay(travelDay);
+        return otherTravelDate == null ? null : parseDate(otherTravelDate);
     }
 
     public String getPassengerName() {
@@ -87,24 +158,48 @@ public class Ticket {
         this.seat = seat;
     }
 
-    public Train getTrain() {
-        return train;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public long getWaitlistNo() {
+        return waitlistNo;
+    }
+
+    public void setWaitlistNo(long waitlistNo) {
+        this.waitlistNo = waitlistNo;
     }
 
-    public void setTrain(Train train) {
-        this.train = train;
+    /**
+     * True while the ticket is on the waitlist and holds no seat.
+     */
+    @JsonIgnore
+    public boolean isWaitlisted() {
+        return waitlistNo > 0;
     }
 
+    @JsonIgnore
     public String getTicketInfo() {
+        String seatInfo = isWaitlisted() ? "Waitlisted, WL " + waitlistNo : "Row " + row + ", Seat " + seat;
         return String.format("""
             -------------------------------
             🎟️  Ticket ID: %s
             🚆 Train: %s (%s)
             🛤️ Route: %s ➜ %s
             👤 Passenger: %s
-            💺 Seat: Row %d, Seat %d
+            💺 Seat: %s
             📅 Travel Date: %s
             -------------------------------
-            """, ticketId, trainName, trainNo, source, destination, passengerName, row, seat, travelDate);
+            """, getTicketId(), getTrainName(), getTrainNo(), getSource(), getDestination(), getPassengerName(),
+                seatInfo, getTravelDate());
+    }
+
+    private static LocalDate parseDate(String value) {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDate.parse(value, LEGACY_TRAVEL_DATE);
+            } catch (DateTimeParseException legacy) {
+                return null;
+            }
+        }
     }
 }
@@ -1,21 +1,30 @@
 package ticket.booking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import ticket.booking.inventory.TrainInventory;
+
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class Train {
     private String trainNo;
     private String trainName;
-    private List<List<Integer>> seats;
+    private int[] seatsPerCoach; // coach layout: seats in each coach
     private Map<String, String> stationTimes;
     private List<String> stations;
+    private volatile TrainInventory inventory; // per-date bookings, built lazily once seats and stations are known
+    private Map<LocalDate, List<long[]>> pendingOccupancy;
 
     public Train() {
         this.stations = new ArrayList<>();
-        this.seats = new ArrayList<>();
+        this.seatsPerCoach = new int[0];
     }
 
+    @JsonIgnore
     public String getTrainInfo() {
         return String.format("Train No: %s | Name: %s",
                 trainNo, trainName);
@@ -37,12 +46,117 @@ public class Train {
         this.trainName = trainName;
     }
 
+    /**
+     * Coach layout as stored in trains.json: one all-zero row per coach. Only the shape is kept; bookings are
+     * held per travel date in {@link #getInventory()}.
+     */
     public List<List<Integer>> getSeats() {
+        List<List<Integer>> seats = new ArrayList<>(seatsPerCoach.length);
+        for (int count : seatsPerCoach) seats.add(Collections.nCopies(count, 0));
         return seats;
     }
 
-    public void setSeats(List<List<Integer>> seats) {
-        this.seats = seats;
+    public synchronized void setSeats(List<List<Integer>> seats) {
+        int[] layout = new int[seats == null ? 0 : seats.size()];
+        for (int r = 0; r < layout.length; r++) {
+            layout[r] = seats.get(r) == null ? 0 : seats.get(r).size();
+        }
+        setSeatsPerCoach(layout);
+    }
+
+    @JsonIgnore
+    public int[] getSeatsPerCoach() {
+        return seatsPerCoach.clone();
+    }
+
+    @JsonIgnore
+    public synchronized void setSeatsPerCoach(int[] seatsPerCoach) {
+        unbuildInventory();
+        this.seatsPerCoach = seatsPerCoach == null ? new int[0] : seatsPerCoach.clone();
+    }
+
+    /**
+     * Per-leg occupancy words of each coach, keyed by ISO travel date. See {@link TrainInventory#toOccupancy()}.
+     */
+    public Map<String, List<long[]>> getOccupancy() {
+        Map<String, List<long[]>> occupancy = new TreeMap<>();
+        getInventory().toOccupancy().forEach((date, words) -> occupancy.put(date.toString(), words));
+        return occupancy;
+    }
+
+    public synchronized void setOccupancy(Map<String, List<long[]>> occupancy) {
+        unbuildInventory();
+        pendingOccupancy = new TreeMap<>();
+        if (occupancy != null) {
+            occupancy.forEach((date, words) -> pendingOccupancy.put(LocalDate.parse(date), words));
+        }
+    }
+
+    /**
+     * Same as {@link #setOccupancy} for callers that already have dates, e.g. the binary snapshot reader.
+     */
+    public synchronized void restoreOccupancy(Map<LocalDate, List<long[]>> occupancy) {
+        unbuildInventory();
+        pendingOccupancy = occupancy == null ? new TreeMap<>() : new TreeMap<>(occupancy);
+    }
+
+    @JsonIgnore
+    public TrainInventory getInventory() {
+        TrainInventory current = inventory;
+        if (current != null) return current;
+        synchronized (this) {
+            if (inventory == null) {
+                int legs = Math.max(1, stations == null ? 0 : stations.size() - 1);
+                inventory = new TrainInventory(seatsPerCoach, legs, pendingOccupancy);
+                pendingOccupancy = null;
+            }
+            return inventory;
+        }
+    }
+
+    /**
+     * Changes the route and coach layout of a train that may already have bookings. Occupancy and waitlists are
+     * moved across by station name and coach (see {@link TrainInventory#relayout}) and the old inventory is
+     * retired. Callers keep the train's bookings out while this runs.
+     */
+    public synchronized void relayout(List<String> newStations, int[] newSeatsPerCoach) {
+        TrainInventory old = getInventory();
+        int[] stopMap = new int[old.getLegCount() + 1];
+        for (int stop = 0; stop < stopMap.length; stop++) {
+            stopMap[stop] = stations == null || stop >= stations.size() ? -1 : stopIndex(newStations, stations.get(stop));
+        }
+        int legs = Math.max(1, newStations == null ? 0 : newStations.size() - 1);
+        inventory = old.relayout(newSeatsPerCoach, legs, stopMap);
+        old.retire();
+        stations = newStations;
+        seatsPerCoach = newSeatsPerCoach.clone();
+    }
+
+    /**
+     * Position of {@code station} on this train's route, or -1 if the train does not stop there.
+     */
+    public int getStopIndex(String station) {
+        return stopIndex(stations, station);
+    }
+
+    /**
+     * Position of {@code station} on {@code route}, matched the way {@link #getStopIndex} matches it, or -1.
+     */
+    public static int stopIndex(List<String> route, String station) {
+        if (station == null || route == null) return -1;
+        String wanted = station.trim();
+        for (int i = 0; i < route.size(); i++) {
+            if (wanted.equalsIgnoreCase(route.get(i))) return i;
+        }
+        return -1;
+    }
+
+    // Turns a built inventory back into pending JSON state so it is rebuilt against the new seats or route.
+    // A date's occupancy only survives if its word count still matches; otherwise that date starts empty.
+    private void unbuildInventory() {
+        if (inventory == null) return;
+        pendingOccupancy = inventory.toOccupancy();
+        inventory = null;
     }
 
     public Map<String, String> getStationTimes() {
@@ -57,7 +171,8 @@ public class Train {
         return stations;
     }
 
-    public void setStations(List<String> stations) {
+    public synchronized void setStations(List<String> stations) {
+        unbuildInventory();
         this.stations = stations;
     }
 
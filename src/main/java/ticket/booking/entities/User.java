@@ -1,6 +1,8 @@
 
 package ticket.booking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -13,7 +15,9 @@ public class User {
     private transient String password; // not saved in JSON when serializing the object to disk or JSON (transient)
     private String hashedPassword;     // stored instead of plain password
     private List<Ticket> ticketsBooked;
-    private String userId = UUID.randomUUID().toString();
+    // the userId as its two longs; also the key every index holds, so one instance is shared by all of them
+    private UUID id = UUID.randomUUID();
+    private String otherUserId; // only for ids that are not UUIDs; id is then derived from it
 
     public User() {
         this.ticketsBooked = new ArrayList<>(); // Avoid null list
@@ -29,7 +33,7 @@ public class User {
         this.hashedPassword = hashedPassword;
         this.ticketsBooked = (ticketsBooked == null) ? new ArrayList<>() : ticketsBooked;
         //Defensive: if caller passes null, we replace it with an empty list. That keeps the internal state robust.
-        this.userId = userId;
+        setUserId(userId);
     }
 
     public void printTickets() { //printTickets() is a convenience method that prints all booked tickets to the console.
@@ -92,10 +96,26 @@ public class User {
     }
 
     public String getUserId() {
-        return userId;
+        if (otherUserId != null) return otherUserId;
+        return id == null ? null : id.toString();
     }
 
     public void setUserId(String userId) {
-        this.userId = userId;
+        UUID uuid = userId == null ? null : Ids.parseCanonical(userId);
+        this.otherUserId = uuid == null ? userId : null;
+        this.id = uuid != null || userId == null ? uuid : Ids.keyOf(userId);
+    }
+
+    /**
+     * The key users are indexed by: the id itself if it is a UUID, otherwise a UUID derived from it. The same
+     * instance every time.
+     */
+    @JsonIgnore
+    public UUID getKey() {
+        return id;
+    }
+
+    public static UUID keyOf(String userId) {
+        return Ids.keyOf(userId);
     }
 }
@@ -0,0 +1,343 @@
+package ticket.booking.index;
+
+import ticket.booking.entities.Train;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Timetable of every train as elementary connections (one train running from one stop to the next), for
+ * earliest-arrival journeys with changes between trains, found with the Connection Scan Algorithm.
+ * <p>
+ * Built once from the trains' {@code stations} and {@code stationTimes} and never changed afterwards; a new
+ * timetable means a new index. Stations are numbered and the connections are kept in parallel int arrays
+ * sorted by departure, so a query is a single forward pass over a few arrays with no Train objects touched
+ * until the journey is read back.
+ * <p>
+ * Trains are taken to run every day: a train's first stop time gives its daily departure and the other stop
+ * times are offsets from it, so a run that starts late in the evening arrives on later days. Trains whose stop
+ * times are missing, unparseable or go backwards are left out.
+ */
+public class ConnectionIndex {
+
+    public static final int MAX_CHANGES = 2;
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final long UNREACHED = Long.MAX_VALUE;
+    // every train of a journey must leave within this many days of the requested departure
+    private static final int SEARCH_DAYS = 2;
+    private static final DateTimeFormatter STATION_TIME = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive().appendPattern("dd-MM-yyyy hh:mm a").toFormatter(Locale.ENGLISH);
+
+    public record Leg(Train train, String from, String to, LocalDate serviceDate, LocalDateTime departure,
+                      LocalDateTime arrival) {}
+
+    public record Journey(List<Leg> legs) {
+        public LocalDateTime departure() {
+            return legs.get(0).departure();
+        }
+
+        public LocalDateTime arrival() {
+            return legs.get(legs.size() - 1).arrival();
+        }
+
+        public int changes() {
+            return legs.size() - 1;
+        }
+    }
+
+    private final long version;
+    private final Train[] trains;
+    private final String[] stationNames;
+    private final Map<String, Integer> stationIds;
+    // connection c: trains[trip[c]] leaves stationNames[from[c]] at departure[c] and reaches to[c] at arrival[c],
+    // both in milliseconds after midnight of the day the train set off
+    private final int[] trip;
+    private final int[] from;
+    private final int[] to;
+    private final int[] departure;
+    private final int[] arrival;
+    private final int spanDays; // longest run, in days after the day it set off
+    private final int skippedTrains;
+
+    private ConnectionIndex(long version, Train[] trains, String[] stationNames, Map<String, Integer> stationIds,
+                            int[] trip, int[] from, int[] to, int[] departure, int[] arrival, int skippedTrains) {
+        this.version = version;
+        this.trains = trains;
+        this.stationNames = stationNames;
+        this.stationIds = stationIds;
+        this.trip = trip;
+        this.from = from;
+        this.to = to;
+        this.departure = departure;
+        this.arrival = arrival;
+        this.skippedTrains = skippedTrains;
+        int latest = 0;
+        for (int a : arrival) latest = Math.max(latest, a);
+        this.spanDays = (int) (latest / DAY_MILLIS);
+    }
+
+    /**
+     * Indexes {@code trainList}, tagged with the timetable {@code version} it was taken from.
+     */
+    public static ConnectionIndex build(Collection<Train> trainList, long version) {
+        List<Train> kept = new ArrayList<>(trainList.size());
+        Map<String, Integer> stationIds = new HashMap<>();
+        List<String> stationNames = new ArrayList<>();
+        int skipped = 0;
+        int size = 0;
+        int[] trip = new int[1024], from = new int[1024], to = new int[1024], dep = new int[1024], arr = new int[1024];
+
+        for (Train train : trainList) {
+            int[] times = stopTimes(train);
+            if (times == null) {
+                skipped++;
+                continue;
+            }
+            int tripId = kept.size();
+            kept.add(train);
+            List<String> stations = train.getStations();
+            int previous = stationId(stations.get(0), stationIds, stationNames);
+            for (int i = 1; i < stations.size(); i++) {
+                int next = stationId(stations.get(i), stationIds, stationNames);
+                if (size == trip.length) {
+                    int grown = size * 2;
+                    trip = Arrays.copyOf(trip, grown);
+                    from = Arrays.copyOf(from, grown);
+                    to = Arrays.copyOf(to, grown);
+                    dep = Arrays.copyOf(dep, grown);
+                    arr = Arrays.copyOf(arr, grown);
+                }
+                trip[size] = tripId;
+                from[size] = previous;
+                to[size] = next;
+                dep[size] = times[i - 1];
+                arr[size] = times[i];
+                size++;
+                previous = next;
+            }
+        }
+
+        // sort by departure: the departure goes in the high half of the key, the connection in the low half
+        long[] order = new long[size];
+        for (int c = 0; c < size; c++) order[c] = ((long) dep[c] << 32) | c;
+        Arrays.sort(order);
+        int[] sortedTrip = new int[size], sortedFrom = new int[size], sortedTo = new int[size];
+        int[] sortedDep = new int[size], sortedArr = new int[size];
+        for (int i = 0; i < size; i++) {
+            int c = (int) order[i];
+            sortedTrip[i] = trip[c];
+            sortedFrom[i] = from[c];
+            sortedTo[i] = to[c];
+            sortedDep[i] = dep[c];
+            sortedArr[i] = arr[c];
+        }
+        return new ConnectionIndex(version, kept.toArray(new Train[0]), stationNames.toArray(new String[0]),
+                stationIds, sortedTrip, sortedFrom, sortedTo, sortedDep, sortedArr, skipped);
+    }
+
+    // Milliseconds after midnight of the first stop's day for each stop, or null if the train cannot be used.
+    private static int[] stopTimes(Train train) {
+        List<String> stations = train.getStations();
+        Map<String, String> stationTimes = train.getStationTimes();
+        if (stations == null || stations.size() < 2 || stationTimes == null) return null;
+        int[] times = new int[stations.size()];
+        LocalDateTime first = null;
+        for (int i = 0; i < stations.size(); i++) {
+            LocalDateTime time = stopTime(stationTimes, stations.get(i));
+            if (time == null) return null;
+            if (first == null) first = time;
+            long millis = Duration.between(first.toLocalDate().atStartOfDay(), time).toMillis();
+            if (millis > Integer.MAX_VALUE || (i > 0 && millis < times[i - 1])) return null;
+            times[i] = (int) millis;
+        }
+        return times;
+    }
+
+    /**
+     * Time of day the train leaves its first stop, or null if its station times do not say.
+     */
+    public static LocalTime firstDeparture(Train train) {
+        List<String> stations = train.getStations();
+        Map<String, String> stationTimes = train.getStationTimes();
+        if (stations == null || stations.isEmpty() || stationTimes == null) return null;
+        LocalDateTime time = stopTime(stationTimes, stations.get(0));
+        return time == null ? null : time.toLocalTime();
+    }
+
+    private static LocalDateTime stopTime(Map<String, String> stationTimes, String station) {
+        String value = stationTimes.get(station);
+        if (value == null) {
+            for (Map.Entry<String, String> entry : stationTimes.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(station.trim())) value = entry.getValue();
+            }
+        }
+        if (value == null) return null;
+        try {
+            return LocalDateTime.parse(value.trim(), STATION_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int stationId(String station, Map<String, Integer> stationIds, List<String> stationNames) {
+        return stationIds.computeIfAbsent(StationIndex.normalize(station), key -> {
+            stationNames.add(station.trim());
+            return stationNames.size() - 1;
+        });
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getConnectionCount() {
+        return trip.length;
+    }
+
+    public int getStationCount() {
+        return stationNames.length;
+    }
+
+    /**
+     * Trains left out because their stop times could not be used.
+     */
+    public int getSkippedTrains() {
+        return skippedTrains;
+    }
+
+    /**
+     * Earliest-arriving journey from {@code source} to {@code destination} leaving no earlier than
+     * {@code departAfter}, with at most {@code maxChanges} changes (capped at {@value #MAX_CHANGES}) of at least
+     * {@code minTransferMillis} each. Among journeys arriving at the same time the one with fewer changes wins.
+     * Returns null if there is none whose trains all leave within {@value #SEARCH_DAYS} days.
+     */
+    public Journey earliestArrival(String source, String destination, LocalDateTime departAfter, int maxChanges,
+                                   long minTransferMillis) {
+        Integer sourceId = stationIds.get(StationIndex.normalize(source));
+        Integer targetId = stationIds.get(StationIndex.normalize(destination));
+        if (sourceId == null || targetId == null || sourceId.equals(targetId) || departAfter == null) return null;
+        return new Scan(sourceId, targetId, departAfter, Math.max(0, Math.min(maxChanges, MAX_CHANGES)),
+                Math.max(0, minTransferMillis)).run();
+    }
+
+    /**
+     * One query. Times are milliseconds after midnight of {@code firstDay}, the earliest day a train still on
+     * the move at the requested departure can have set off. Level k holds journeys on exactly k + 1 trains.
+     */
+    private final class Scan {
+        private final int source;
+        private final int target;
+        private final int levels;
+        private final long transfer;
+        private final LocalDate firstDay;
+        private final int days;
+        private final long start;
+        private final long[] reached;   // [level * stations + station]: earliest arrival
+        private final int[] reachedBy;  // [level * stations + station]: connection that arrived there
+        private final int[] reachedDay; // [level * stations + station]: day of that connection's run
+        private final int[] boarded;    // [level * runs + run]: connection where the run was boarded, or -1
+
+        Scan(int source, int target, LocalDateTime departAfter, int maxChanges, long transfer) {
+            this.source = source;
+            this.target = target;
+            this.levels = maxChanges + 1;
+            this.transfer = transfer;
+            this.firstDay = departAfter.toLocalDate().minusDays(spanDays);
+            this.days = spanDays + SEARCH_DAYS + 1;
+            this.start = Duration.between(firstDay.atStartOfDay(), departAfter).toMillis();
+            this.reached = new long[levels * stationNames.length];
+            this.reachedBy = new int[reached.length];
+            this.reachedDay = new int[reached.length];
+            this.boarded = new int[levels * trains.length * days];
+            Arrays.fill(reached, UNREACHED);
+            Arrays.fill(boarded, -1);
+        }
+
+        Journey run() {
+            // one cursor per day into the connection array; the runs of every day are scanned merged by time
+            int[] cursor = new int[days];
+            for (int d = 0; d < days; d++) cursor[d] = firstDepartingAt(start - d * DAY_MILLIS);
+            long end = start + SEARCH_DAYS * DAY_MILLIS;
+            long best = UNREACHED;
+
+            while (true) {
+                int day = -1;
+                long next = Long.MAX_VALUE;
+                for (int d = 0; d < days; d++) {
+                    if (cursor[d] == trip.length) continue;
+                    long time = d * DAY_MILLIS + departure[cursor[d]];
+                    if (time < next) {
+                        next = time;
+                        day = d;
+                    }
+                }
+                if (day < 0 || next > end || next >= best) break;
+                int c = cursor[day]++;
+                best = Math.min(best, scan(c, day, next));
+            }
+            return best == UNREACHED ? null : journey();
+        }
+
+        // Relaxes connection c of the run that set off on firstDay + day; returns its arrival if it reached the target.
+        private long scan(int c, int day, long leaves) {
+            long arrives = day * DAY_MILLIS + arrival[c];
+            int run = trip[c] * days + day;
+            long atTarget = UNREACHED;
+            for (int level = 0; level < levels; level++) {
+                int slot = level * trains.length * days + run;
+                if (boarded[slot] < 0) {
+                    boolean canBoard = level == 0
+                            ? from[c] == source
+                            : reached[(level - 1) * stationNames.length + from[c]] <= leaves - transfer;
+                    if (!canBoard) continue;
+                    boarded[slot] = c;
+                }
+                int at = level * stationNames.length + to[c];
+                if (arrives < reached[at]) {
+                    reached[at] = arrives;
+                    reachedBy[at] = c;
+                    reachedDay[at] = day;
+                }
+                if (to[c] == target) atTarget = Math.min(atTarget, arrives);
+            }
+            return atTarget;
+        }
+
+        private int firstDepartingAt(long time) {
+            int low = 0, high = departure.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departure[mid] < time) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        private Journey journey() {
+            int level = 0;
+            for (int l = 1; l < levels; l++) {
+                if (reached[l * stationNames.length + target] < reached[level * stationNames.length + target]) level = l;
+            }
+            LinkedList<Leg> legs = new LinkedList<>();
+            int station = target;
+            for (; level >= 0; level--) {
+                int at = level * stationNames.length + station;
+                int off = reachedBy[at];
+                int day = reachedDay[at];
+                int on = boarded[level * trains.length * days + trip[off] * days + day];
+                LocalDateTime setOff = firstDay.plusDays(day).atStartOfDay();
+                legs.addFirst(new Leg(trains[trip[off]], stationNames[from[on]], stationNames[to[off]],
+                        setOff.toLocalDate(), setOff.plus(Duration.ofMillis(departure[on])),
+                        setOff.plus(Duration.ofMillis(arrival[off]))));
+                station = from[on];
+            }
+            return new Journey(List.copyOf(legs));
+        }
+    }
+}
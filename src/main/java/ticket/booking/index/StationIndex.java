@@ -0,0 +1,105 @@
+package ticket.booking.index;
+
+import ticket.booking.entities.Train;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from station to the trains that stop there, with the stop ordinal on each train's route.
+ * A source/destination search becomes an intersection of two posting lists instead of a scan of every train.
+ */
+public class StationIndex {
+
+    // station key -> (train key -> stop posting)
+    private final Map<String, Map<String, Stop>> postings = new ConcurrentHashMap<>();
+    // train key -> station keys it was indexed under, so a train can be re-indexed when its route changes
+    private final Map<String, List<String>> stationsByTrain = new ConcurrentHashMap<>();
+    private volatile long version; // bumped after every add and remove, so cached search results can be checked
+
+    public record Stop(Train train, int ordinal) {}
+
+    /**
+     * Station and train keys are trimmed and lower-cased. Lookups use the result as is; only keys stored in the
+     * index are interned, so searches do not grow the string pool.
+     */
+    public static String normalize(String key) {
+        if (key == null) return null;
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // a key the index keeps, shared by every posting of the same station or train
+    private static String storedKey(String key) {
+        String normalized = normalize(key);
+        return normalized == null ? null : normalized.intern();
+    }
+
+    public synchronized void add(Train train) {
+        if (train == null || train.getTrainNo() == null) return;
+        String trainKey = storedKey(train.getTrainNo());
+        remove(trainKey);
+
+        List<String> stations = train.getStations();
+        if (stations == null || stations.isEmpty()) return;
+        List<String> indexed = new ArrayList<>(stations.size());
+        for (int ordinal = 0; ordinal < stations.size(); ordinal++) {
+            String station = storedKey(stations.get(ordinal));
+            if (station == null) continue;
+            // keep the first stop on looping routes, same as List.indexOf did
+            Stop previous = postings.computeIfAbsent(station, k -> new ConcurrentHashMap<>())
+                    .putIfAbsent(trainKey, new Stop(train, ordinal));
+            if (previous == null) indexed.add(station);
+        }
+        stationsByTrain.put(trainKey, indexed);
+        version++;
+    }
+
+    public synchronized void remove(String trainNo) {
+        String trainKey = normalize(trainNo);
+        if (trainKey == null) return;
+        List<String> indexed = stationsByTrain.remove(trainKey);
+        if (indexed == null) return;
+        for (String station : indexed) {
+            Map<String, Stop> stops = postings.get(station);
+            if (stops == null) continue;
+            stops.remove(trainKey);
+            if (stops.isEmpty()) postings.remove(station);
+        }
+        version++;
+    }
+
+    /**
+     * Changes whenever a train is added, re-indexed or removed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Trains that stop at {@code source} before {@code destination}, ordered by train number.
+     */
+    public List<Train> find(String source, String destination) {
+        Map<String, Stop> from = postings.get(normalize(source));
+        Map<String, Stop> to = postings.get(normalize(destination));
+        if (from == null || to == null) return Collections.emptyList();
+
+        // walk the shorter posting list and probe the longer one
+        boolean fromIsSmaller = from.size() <= to.size();
+        Map<String, Stop> small = fromIsSmaller ? from : to;
+        Map<String, Stop> large = fromIsSmaller ? to : from;
+
+        List<Stop> matches = new ArrayList<>();
+        for (Map.Entry<String, Stop> entry : small.entrySet()) {
+            Stop other = large.get(entry.getKey());
+            if (other == null) continue;
+            Stop src = fromIsSmaller ? entry.getValue() : other;
+            Stop dest = fromIsSmaller ? other : entry.getValue();
+            if (src.ordinal() < dest.ordinal()) matches.add(src);
+        }
+        matches.sort(Comparator.comparing(stop -> stop.train().getTrainNo()));
+
+        List<Train> trains = new ArrayList<>(matches.size());
+        for (Stop stop : matches) trains.add(stop.train());
+        return trains;
+    }
+}
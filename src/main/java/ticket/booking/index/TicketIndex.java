@@ -0,0 +1,84 @@
+package ticket.booking.index;
+
+import ticket.booking.entities.Ticket;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global index of booked tickets by ticketId, plus a secondary index by train so a whole train (or one of its
+ * dates) can be cancelled without walking every user's ticket list. Both are keyed by {@link Ticket#getKey()},
+ * which is a fraction of the size of the id string.
+ */
+public class TicketIndex {
+
+    // owner is the owning user's key (User.getKey()), shared with the user rather than copied per ticket
+    public record Entry(UUID owner, Ticket ticket) {
+        public String userId() {
+            return owner.toString();
+        }
+
+        public LocalDate travelDate() {
+            return ticket.getTravelLocalDate();
+        }
+    }
+
+    private final Map<UUID, Entry> byTicketId = new ConcurrentHashMap<>();
+    // train key -> keys of the tickets booked on it
+    private final Map<String, Set<UUID>> byTrain = new ConcurrentHashMap<>();
+
+    public Entry add(UUID owner, Ticket ticket) {
+        Entry entry = new Entry(owner, ticket);
+        UUID key = ticket.getKey();
+        byTicketId.put(key, entry);
+        byTrain.computeIfAbsent(StationIndex.normalize(ticket.getTrainNo()), k -> ConcurrentHashMap.newKeySet())
+                .add(key);
+        return entry;
+    }
+
+    public Entry get(String ticketId) {
+        return ticketId == null ? null : byTicketId.get(Ticket.keyOf(ticketId));
+    }
+
+    /**
+     * Removes the entry if it is still the one indexed. Only one of several concurrent callers gets true.
+     */
+    public boolean remove(Entry entry) {
+        UUID key = entry.ticket().getKey();
+        if (!byTicketId.remove(key, entry)) return false;
+        Set<UUID> keys = byTrain.get(StationIndex.normalize(entry.ticket().getTrainNo()));
+        if (keys != null) keys.remove(key);
+        return true;
+    }
+
+    /**
+     * Every indexed ticket, as a live view.
+     */
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(byTicketId.values());
+    }
+
+    /**
+     * Tickets booked on {@code trainNo}, limited to {@code travelDate} unless it is null.
+     */
+    public List<Entry> findByTrain(String trainNo, LocalDate travelDate) {
+        Set<UUID> keys = byTrain.get(StationIndex.normalize(trainNo));
+        if (keys == null) return List.of();
+        List<Entry> entries = new ArrayList<>();
+        for (UUID key : keys) {
+            Entry entry = byTicketId.get(key);
+            if (entry != null && (travelDate == null || Objects.equals(travelDate, entry.travelDate()))) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,94 @@
+package ticket.booking.index;
+
+import ticket.booking.entities.User;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash indexes over users by normalized email, phone number and userId, so login and signup never scan the
+ * user list. {@link #register} claims the email and phone with {@code putIfAbsent}, which makes the signup
+ * duplicate check atomic.
+ */
+public class UserIndex {
+
+    private final Map<String, User> byEmail = new ConcurrentHashMap<>();
+    private final Map<String, User> byPhone = new ConcurrentHashMap<>();
+    private final Map<UUID, User> byId = new ConcurrentHashMap<>(); // by User.getKey()
+
+    public static String normalizeEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static String normalizePhone(String phone) {
+        return phone == null ? null : phone.trim();
+    }
+
+    /**
+     * Indexes a user loaded from storage. If two stored users share an email or phone, the first one keeps it.
+     */
+    public void add(User user) {
+        byId.put(user.getKey(), user);
+        putIfPresent(byEmail, normalizeEmail(user.getEmail()), user);
+        putIfPresent(byPhone, normalizePhone(user.getPhoneNumber()), user);
+    }
+
+    /**
+     * Indexes a new user unless its email or phone is already taken. Returns false, indexing nothing, on a clash.
+     */
+    public boolean register(User user) {
+        String email = normalizeEmail(user.getEmail());
+        String phone = normalizePhone(user.getPhoneNumber());
+        if (putIfPresent(byEmail, email, user) != null) return false;
+        if (putIfPresent(byPhone, phone, user) != null) {
+            if (email != null) byEmail.remove(email, user);
+            return false;
+        }
+        byId.put(user.getKey(), user);
+        return true;
+    }
+
+    public void remove(User user) {
+        byId.remove(user.getKey(), user);
+        String email = normalizeEmail(user.getEmail());
+        if (email != null) byEmail.remove(email, user);
+        String phone = normalizePhone(user.getPhoneNumber());
+        if (phone != null) byPhone.remove(phone, user);
+    }
+
+    /**
+     * Points every index entry of {@code previous} at {@code updated}, e.g. after a user object was replaced.
+     */
+    public void replace(User previous, User updated) {
+        if (previous != null) remove(previous);
+        byId.put(updated.getKey(), updated);
+        String email = normalizeEmail(updated.getEmail());
+        if (email != null) byEmail.put(email, updated);
+        String phone = normalizePhone(updated.getPhoneNumber());
+        if (phone != null) byPhone.put(phone, updated);
+    }
+
+    public User findById(String userId) {
+        return userId == null ? null : byId.get(User.keyOf(userId));
+    }
+
+    public User findByKey(UUID key) {
+        return key == null ? null : byId.get(key);
+    }
+
+    public User findByEmail(String email) {
+        String key = normalizeEmail(email);
+        return key == null ? null : byEmail.get(key);
+    }
+
+    public User findByPhone(String phone) {
+        String key = normalizePhone(phone);
+        return key == null ? null : byPhone.get(key);
+    }
+
+    private static User putIfPresent(Map<String, User> index, String key, User user) {
+        return key == null ? null : index.putIfAbsent(key, user);
+    }
+}
@@ -0,0 +1,465 @@
+package ticket.booking.inventory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Seat occupancy for one train, tracked per leg of the route so a seat can be resold on stretches that do
+ * not overlap. Leg {@code k} is the stretch between stop {@code k} and stop {@code k + 1}; a journey from stop
+ * {@code i} to stop {@code j} occupies legs {@code [i, j)}.
+ * <p>
+ * Each coach (a "row" in the seat matrix) keeps one bitset of seats per leg, laid out leg-major in an
+ * {@link AtomicLongArray}: bit {@code s} of leg {@code k} is set when seat {@code s} is taken on that leg.
+ * Seats are claimed leg by leg with CAS and rolled back on conflict, so concurrent bookings never block each
+ * other and a seat is never sold twice on the same leg. Free-seat queries OR the leg words together and
+ * test 64 seats at a time; {@link #allocate} uses the same free words to pick whole groups of seats.
+ */
+public class SeatInventory {
+
+    public record Seat(int row, int seat) {}
+
+    private static final int MAX_ALLOCATION_ATTEMPTS = 8;
+    // window seats among bits 0-63 of word w are WINDOW_MASKS[w % 3]: bays of six repeat every three words
+    private static final long[] WINDOW_MASKS = new long[3];
+
+    static {
+        for (int seat = 0; seat < 64 * WINDOW_MASKS.length; seat++) {
+            if (SeatPreference.isWindow(seat)) WINDOW_MASKS[seat >>> 6] |= 1L << seat;
+        }
+    }
+
+    private final int legs;
+    private final int[] seatsPerCoach;
+    private final int[] wordsPerCoach;
+    private final AtomicLongArray[] coaches;
+    private final AtomicLong version = new AtomicLong(); // bumped by every claim and release
+    private volatile boolean retired; // replaced by a re-laid-out inventory; see retire()
+
+    public SeatInventory(int[] seatsPerCoach, int legs) {
+        if (legs < 1) throw new IllegalArgumentException("A route needs at least one leg");
+        this.legs = legs;
+        this.seatsPerCoach = seatsPerCoach.clone();
+        this.wordsPerCoach = new int[seatsPerCoach.length];
+        this.coaches = new AtomicLongArray[seatsPerCoach.length];
+        for (int r = 0; r < seatsPerCoach.length; r++) {
+            wordsPerCoach[r] = wordCount(seatsPerCoach[r]);
+            coaches[r] = new AtomicLongArray(wordsPerCoach[r] * legs);
+        }
+    }
+
+    /**
+     * Restores an inventory from {@link #toOccupancy()} output. Coaches whose word count no longer matches the
+     * layout (the route or coach was edited) start empty.
+     */
+    public static SeatInventory restore(int[] seatsPerCoach, int legs, List<long[]> occupancy) {
+        SeatInventory inventory = new SeatInventory(seatsPerCoach, legs);
+        if (occupancy == null) return inventory;
+        for (int r = 0; r < Math.min(occupancy.size(), inventory.coaches.length); r++) {
+            long[] words = occupancy.get(r);
+            AtomicLongArray coach = inventory.coaches[r];
+            if (words == null || words.length != coach.length()) continue;
+            for (int i = 0; i < words.length; i++) {
+                coach.set(i, words[i] & inventory.validMask(r, i % inventory.wordsPerCoach[r]));
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Moves occupancy words from one route and coach layout to another. {@code stopMap} gives each old stop's
+     * position on the new route, or -1 if it was dropped; an old leg is booked on every new leg between the
+     * nearest surviving stops around it, so a stop added in between inherits the bookings passing it and a
+     * seat is never shown free where it was taken. Each coach keeps its seats up to its new size.
+     */
+    public static List<long[]> remap(List<long[]> occupancy, int[] oldSeatsPerCoach, int oldLegs,
+                                     int[] newSeatsPerCoach, int newLegs, int[] stopMap) {
+        List<long[]> remapped = new ArrayList<>(newSeatsPerCoach.length);
+        for (int r = 0; r < newSeatsPerCoach.length; r++) {
+            int newStride = wordCount(newSeatsPerCoach[r]);
+            long[] words = new long[newStride * newLegs];
+            remapped.add(words);
+            if (r >= oldSeatsPerCoach.length || r >= occupancy.size()) continue;
+            long[] old = occupancy.get(r);
+            int oldStride = wordCount(oldSeatsPerCoach[r]);
+            if (old == null || old.length != oldStride * oldLegs) continue;
+            for (int leg = 0; leg < oldLegs; leg++) {
+                int from = leg;
+                while (from >= 0 && stopMap[from] < 0) from--;
+                int to = leg + 1;
+                while (to <= oldLegs && stopMap[to] < 0) to++;
+                if (from < 0 || to > oldLegs || stopMap[from] >= stopMap[to]) continue; // off the new route
+                for (int w = 0; w < Math.min(oldStride, newStride); w++) {
+                    int remaining = Math.min(oldSeatsPerCoach[r], newSeatsPerCoach[r]) - (w << 6);
+                    long taken = old[leg * oldStride + w] & (remaining >= 64 ? -1L : (1L << remaining) - 1);
+                    for (int newLeg = stopMap[from]; newLeg < stopMap[to]; newLeg++) words[newLeg * newStride + w] |= taken;
+                }
+            }
+        }
+        return remapped;
+    }
+
+    /**
+     * Marks this inventory as replaced, e.g. after the train's route or coaches changed. It keeps working, but
+     * claims made on it no longer count; the booking shard checks {@link #isRetired()} before claiming.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Snapshot of the occupancy on legs {@code [fromStop, toStop)} as a 0/1 matrix (1 = taken on any of them).
+     */
+    public List<List<Integer>> toMatrix(int fromStop, int toStop) {
+        List<List<Integer>> seats = new ArrayList<>(coaches.length);
+        for (int r = 0; r < coaches.length; r++) {
+            List<Integer> row = new ArrayList<>(seatsPerCoach[r]);
+            for (int s = 0; s < seatsPerCoach[r]; s++) {
+                row.add(isFree(r, s, fromStop, toStop) ? 0 : 1);
+            }
+            seats.add(row);
+        }
+        return seats;
+    }
+
+    /**
+     * Snapshot of the raw leg-major words of every coach, for persistence.
+     */
+    public List<long[]> toOccupancy() {
+        List<long[]> occupancy = new ArrayList<>(coaches.length);
+        for (AtomicLongArray coach : coaches) {
+            long[] words = new long[coach.length()];
+            for (int i = 0; i < words.length; i++) words[i] = coach.get(i);
+            occupancy.add(words);
+        }
+        return occupancy;
+    }
+
+    /**
+     * Length of one coach's entry in {@link #toOccupancy()}: one word per 64 seats, for every leg.
+     */
+    public static int occupancyWords(int seats, int legs) {
+        return wordCount(seats) * legs;
+    }
+
+    public int getLegCount() {
+        return legs;
+    }
+
+    public int getCoachCount() {
+        return coaches.length;
+    }
+
+    public int getSeatCount(int row) {
+        return seatsPerCoach[row];
+    }
+
+    /**
+     * Seats in all coaches together.
+     */
+    public int getSeatCount() {
+        int seats = 0;
+        for (int count : seatsPerCoach) seats += count;
+        return seats;
+    }
+
+    public boolean isValidSeat(int row, int seat) {
+        return row >= 0 && row < coaches.length && seat >= 0 && seat < seatsPerCoach[row];
+    }
+
+    public boolean isValidJourney(int fromStop, int toStop) {
+        return fromStop >= 0 && fromStop < toStop && toStop <= legs;
+    }
+
+    /**
+     * True if the seat is taken on any leg of the route.
+     */
+    public boolean isBooked(int row, int seat) {
+        return !isFree(row, seat, 0, legs);
+    }
+
+    public boolean isFree(int row, int seat, int fromStop, int toStop) {
+        checkSeat(row, seat);
+        checkJourney(fromStop, toStop);
+        AtomicLongArray coach = coaches[row];
+        int stride = wordsPerCoach[row];
+        int word = seat >>> 6;
+        long bit = 1L << seat;
+        for (int leg = fromStop; leg < toStop; leg++) {
+            if ((coach.get(leg * stride + word) & bit) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Atomically claims a seat for the whole run.
+     */
+    public boolean tryBook(int row, int seat) {
+        return tryBook(row, seat, 0, legs);
+    }
+
+    /**
+     * Atomically claims a seat on legs {@code [fromStop, toStop)}. Returns false, leaving the seat untouched,
+     * if any of those legs is already taken.
+     */
+    public boolean tryBook(int row, int seat, int fromStop, int toStop) {
+        checkSeat(row, seat);
+        checkJourney(fromStop, toStop);
+        AtomicLongArray coach = coaches[row];
+        int stride = wordsPerCoach[row];
+        int word = seat >>> 6;
+        long bit = 1L << seat;
+        for (int leg = fromStop; leg < toStop; leg++) {
+            if (!setBit(coach, leg * stride + word, bit)) {
+                // another booking holds this leg: give back the legs we already took
+                for (int taken = fromStop; taken < leg; taken++) {
+                    clearBit(coach, taken * stride + word, bit);
+                }
+                return false;
+            }
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Frees a seat on legs {@code [fromStop, toStop)}. Returns false if any of those legs was not booked.
+     */
+    public boolean release(int row, int seat, int fromStop, int toStop) {
+        checkSeat(row, seat);
+        checkJourney(fromStop, toStop);
+        AtomicLongArray coach = coaches[row];
+        int stride = wordsPerCoach[row];
+        int word = seat >>> 6;
+        long bit = 1L << seat;
+        boolean allBooked = true;
+        for (int leg = fromStop; leg < toStop; leg++) {
+            allBooked &= clearBit(coach, leg * stride + word, bit);
+        }
+        version.incrementAndGet();
+        return allBooked;
+    }
+
+    /**
+     * Changes whenever a seat is claimed or released, so a reader can tell whether anything it derived from
+     * this inventory is still current. Read it before deriving.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Number of seats free on every leg of {@code [fromStop, toStop)}.
+     */
+    public int countFree(int fromStop, int toStop) {
+        checkJourney(fromStop, toStop);
+        int free = 0;
+        for (int r = 0; r < coaches.length; r++) free += bitCount(freeWords(r, fromStop, toStop));
+        return free;
+    }
+
+    /**
+     * First seat in {@code row} that is free on every leg of {@code [fromStop, toStop)}, or -1.
+     */
+    public int firstFreeSeat(int row, int fromStop, int toStop) {
+        checkJourney(fromStop, toStop);
+        AtomicLongArray coach = coaches[row];
+        int stride = wordsPerCoach[row];
+        for (int word = 0; word < stride; word++) {
+            long taken = 0;
+            for (int leg = fromStop; leg < toStop; leg++) {
+                taken |= coach.get(leg * stride + word);
+            }
+            long free = ~taken & validMask(row, word);
+            if (free != 0) return (word << 6) + Long.numberOfTrailingZeros(free);
+        }
+        return -1;
+    }
+
+    /**
+     * First seat on the train that is free on every leg of {@code [fromStop, toStop)}, or null if none is.
+     */
+    public Seat firstFreeSeat(int fromStop, int toStop) {
+        for (int r = 0; r < coaches.length; r++) {
+            int seat = firstFreeSeat(r, fromStop, toStop);
+            if (seat >= 0) return new Seat(r, seat);
+        }
+        return null;
+    }
+
+    /**
+     * Picks {@code count} seats that are free on every leg of {@code [fromStop, toStop)} and honour
+     * {@code preference}, and claims them all. Returns the seats, or an empty list (nothing claimed) if no such
+     * set is free. Each coach's free seats are computed once, a word at a time, so the cost is O(words x legs)
+     * however full the train is.
+     */
+    public List<Seat> allocate(int count, int fromStop, int toStop, SeatPreference preference) {
+        checkJourney(fromStop, toStop);
+        if (count < 1) throw new IllegalArgumentException("Seat count must be positive");
+        for (int attempt = 0; attempt < MAX_ALLOCATION_ATTEMPTS; attempt++) {
+            List<Seat> seats = pick(count, fromStop, toStop, preference);
+            if (seats.isEmpty() || claimAll(seats, fromStop, toStop)) return seats;
+            // a concurrent booking took one of them first: pick again from the new occupancy
+        }
+        return List.of();
+    }
+
+    private List<Seat> pick(int count, int fromStop, int toStop, SeatPreference preference) {
+        long[][] free = new long[coaches.length][];
+        int totalFree = 0;
+        for (int r = 0; r < coaches.length; r++) {
+            free[r] = freeWords(r, fromStop, toStop);
+            totalFree += bitCount(free[r]);
+        }
+        if (totalFree < count) return List.of();
+        if (preference.contiguous()) return pickContiguous(free, count, preference.window());
+
+        List<Seat> seats = new ArrayList<>(count);
+        if (preference.sameRow()) {
+            for (int r = 0; r < coaches.length; r++) {
+                if (bitCount(free[r]) < count) continue;
+                if (preference.window()) take(seats, r, free[r], true, count);
+                take(seats, r, free[r], false, count);
+                return seats;
+            }
+            return List.of();
+        }
+        if (preference.window()) {
+            for (int r = 0; r < coaches.length && seats.size() < count; r++) take(seats, r, free[r], true, count);
+        }
+        for (int r = 0; r < coaches.length && seats.size() < count; r++) take(seats, r, free[r], false, count);
+        return seats;
+    }
+
+    // First run of `count` adjacent free seats, preferring one that starts or ends at a window.
+    private List<Seat> pickContiguous(long[][] free, int count, boolean window) {
+        int fallbackRow = -1;
+        int fallbackStart = -1;
+        for (int r = 0; r < coaches.length; r++) {
+            if (bitCount(free[r]) < count) continue;
+            long[] starts = runStarts(free[r], count);
+            for (int word = 0; word < starts.length; word++) {
+                for (long bits = starts[word]; bits != 0; bits &= bits - 1) {
+                    int start = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (!window || SeatPreference.isWindow(start) || SeatPreference.isWindow(start + count - 1)) {
+                        return run(r, start, count);
+                    }
+                    if (fallbackRow < 0) {
+                        fallbackRow = r;
+                        fallbackStart = start;
+                    }
+                }
+            }
+        }
+        return fallbackRow < 0 ? List.of() : run(fallbackRow, fallbackStart, count);
+    }
+
+    // Bit s is set when seats s .. s + count - 1 are all free: the free bits ANDed with themselves shifted.
+    private static long[] runStarts(long[] free, int count) {
+        long[] starts = free.clone();
+        for (int shift = 1; shift < count; shift++) {
+            int wordShift = shift >>> 6;
+            int bitShift = shift & 63;
+            for (int word = 0; word < starts.length; word++) {
+                long shifted = wordAt(free, word + wordShift) >>> bitShift;
+                if (bitShift != 0) shifted |= wordAt(free, word + wordShift + 1) << (64 - bitShift);
+                starts[word] &= shifted;
+            }
+        }
+        return starts;
+    }
+
+    private static long wordAt(long[] words, int index) {
+        return index < words.length ? words[index] : 0;
+    }
+
+    private static List<Seat> run(int row, int start, int count) {
+        List<Seat> seats = new ArrayList<>(count);
+        for (int seat = start; seat < start + count; seat++) seats.add(new Seat(row, seat));
+        return seats;
+    }
+
+    // Moves free seats of `row` (window seats only if asked) into `seats` until it holds `count`.
+    private static void take(List<Seat> seats, int row, long[] free, boolean windowOnly, int count) {
+        for (int word = 0; word < free.length && seats.size() < count; word++) {
+            long candidates = free[word] & (windowOnly ? WINDOW_MASKS[word % WINDOW_MASKS.length] : -1L);
+            for (; candidates != 0 && seats.size() < count; candidates &= candidates - 1) {
+                long bit = Long.lowestOneBit(candidates);
+                seats.add(new Seat(row, (word << 6) + Long.numberOfTrailingZeros(bit)));
+                free[word] &= ~bit;
+            }
+        }
+    }
+
+    private long[] freeWords(int row, int fromStop, int toStop) {
+        AtomicLongArray coach = coaches[row];
+        int stride = wordsPerCoach[row];
+        long[] free = new long[stride];
+        for (int word = 0; word < stride; word++) {
+            long taken = 0;
+            for (int leg = fromStop; leg < toStop; leg++) {
+                taken |= coach.get(leg * stride + word);
+            }
+            free[word] = ~taken & validMask(row, word);
+        }
+        return free;
+    }
+
+    private static int bitCount(long[] words) {
+        int count = 0;
+        for (long word : words) count += Long.bitCount(word);
+        return count;
+    }
+
+    private boolean claimAll(List<Seat> seats, int fromStop, int toStop) {
+        for (int i = 0; i < seats.size(); i++) {
+            Seat seat = seats.get(i);
+            if (tryBook(seat.row(), seat.seat(), fromStop, toStop)) continue;
+            for (int j = 0; j < i; j++) release(seats.get(j).row(), seats.get(j).seat(), fromStop, toStop);
+            return false;
+        }
+        return true;
+    }
+
+    private long validMask(int row, int word) {
+        int remaining = seatsPerCoach[row] - (word << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+
+    private static boolean setBit(AtomicLongArray words, int index, long bit) {
+        while (true) {
+            long current = words.get(index);
+            if ((current & bit) != 0) return false;
+            if (words.compareAndSet(index, current, current | bit)) return true;
+        }
+    }
+
+    private static boolean clearBit(AtomicLongArray words, int index, long bit) {
+        while (true) {
+            long current = words.get(index);
+            if ((current & bit) == 0) return false;
+            if (words.compareAndSet(index, current, current & ~bit)) return true;
+        }
+    }
+
+    private void checkSeat(int row, int seat) {
+        if (!isValidSeat(row, seat)) {
+            throw new IndexOutOfBoundsException("No seat " + seat + " in row " + row);
+        }
+    }
+
+    private void checkJourney(int fromStop, int toStop) {
+        if (!isValidJourney(fromStop, toStop)) {
+            throw new IndexOutOfBoundsException("No journey from stop " + fromStop + " to stop " + toStop);
+        }
+    }
+
+    private static int wordCount(int seats) {
+        return (seats + 63) >>> 6;
+    }
+}
@@ -0,0 +1,27 @@
+package ticket.booking.inventory;
+
+/**
+ * What a traveller asks of automatically assigned seats. {@code window} is a soft preference: window seats are
+ * chosen first when enough are free. {@code sameRow} keeps a group in one coach and {@code contiguous} also
+ * seats it side by side; both are hard requirements.
+ * <p>
+ * Coaches are laid out in bays of {@value #BAY_WIDTH} seats across, so seats 0 and 5 of every bay are at the
+ * windows.
+ */
+public record SeatPreference(boolean window, boolean sameRow, boolean contiguous) {
+
+    public static final SeatPreference NONE = new SeatPreference(false, false, false);
+    public static final int BAY_WIDTH = 6;
+
+    public static boolean isWindow(int seat) {
+        int position = seat % BAY_WIDTH;
+        return position == 0 || position == BAY_WIDTH - 1;
+    }
+
+    /**
+     * True if the seats must all be in one coach.
+     */
+    public boolean oneRow() {
+        return sameRow || contiguous;
+    }
+}
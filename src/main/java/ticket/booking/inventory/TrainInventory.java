@@ -0,0 +1,145 @@
+package ticket.booking.inventory;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Seat inventory of one train, partitioned by travel date. A partition is created the first time its date is
+ * touched, and partitions for dates that have already departed are dropped, so a train never holds more than
+ * one booking window's worth of dates. Each date also has its {@link Waitlist}, which departs with it.
+ */
+public class TrainInventory {
+
+    public static final int BOOKING_WINDOW_DAYS = 120;
+
+    private final int[] seatsPerCoach;
+    private final int legs;
+    private final ConcurrentSkipListMap<LocalDate, SeatInventory> partitions = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<LocalDate, Waitlist> waitlists = new ConcurrentSkipListMap<>();
+    // persisted occupancy not yet turned into a partition
+    private final Map<LocalDate, List<long[]>> restored = new ConcurrentHashMap<>();
+    private volatile boolean retired;
+    // the day eviction last ran for; until the date rolls over there is nothing new to evict
+    private volatile LocalDate evictedFor;
+
+    public TrainInventory(int[] seatsPerCoach, int legs) {
+        this.seatsPerCoach = seatsPerCoach.clone();
+        this.legs = legs;
+    }
+
+    public TrainInventory(int[] seatsPerCoach, int legs, Map<LocalDate, List<long[]>> occupancy) {
+        this(seatsPerCoach, legs);
+        if (occupancy != null) restored.putAll(occupancy);
+    }
+
+    public int getLegCount() {
+        return legs;
+    }
+
+    public int getCoachCount() {
+        return seatsPerCoach.length;
+    }
+
+    /**
+     * True if tickets can be sold for {@code date}: from today up to {@link #BOOKING_WINDOW_DAYS} ahead.
+     */
+    public boolean isBookable(LocalDate date) {
+        return isBookableDate(date);
+    }
+
+    /**
+     * Same as {@link #isBookable}, for callers without a train at hand.
+     */
+    public static boolean isBookableDate(LocalDate date) {
+        return isBookableDate(date, LocalDate.now());
+    }
+
+    private static boolean isBookableDate(LocalDate date, LocalDate today) {
+        return date != null && !date.isBefore(today) && !date.isAfter(today.plusDays(BOOKING_WINDOW_DAYS));
+    }
+
+    /**
+     * The seats for {@code date}, created on first use.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public SeatInventory forDate(LocalDate date) {
+        LocalDate today = LocalDate.now();
+        if (!isBookableDate(date, today)) {
+            throw new IllegalArgumentException("Travel date " + date + " is outside the booking window");
+        }
+        if (!today.equals(evictedFor)) evictExpired(today);
+        SeatInventory seats = partitions.computeIfAbsent(date,
+                d -> SeatInventory.restore(seatsPerCoach, legs, restored.remove(d)));
+        if (retired) seats.retire(); // created by a caller that looked the train up before it was re-laid out
+        return seats;
+    }
+
+    /**
+     * The waitlist for {@code date}, created on first use.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public Waitlist waitlist(LocalDate date) {
+        if (!isBookable(date)) {
+            throw new IllegalArgumentException("Travel date " + date + " is outside the booking window");
+        }
+        return waitlists.computeIfAbsent(date, d -> new Waitlist());
+    }
+
+    /**
+     * Drops partitions (and restored occupancy) for dates before today. Their bookings stay on the tickets.
+     */
+    public void evictExpired() {
+        evictExpired(LocalDate.now());
+    }
+
+    private void evictExpired(LocalDate today) {
+        if (!partitions.isEmpty() && partitions.firstKey().isBefore(today)) {
+            partitions.headMap(today).clear();
+        }
+        if (!waitlists.isEmpty() && waitlists.firstKey().isBefore(today)) {
+            waitlists.headMap(today).clear();
+        }
+        if (!restored.isEmpty()) {
+            restored.keySet().removeIf(date -> date.isBefore(today));
+        }
+        evictedFor = today;
+    }
+
+    /**
+     * A copy of this inventory for a new route and coach layout, its occupancy and waitlists moved across by
+     * {@code stopMap} (each old stop's position on the new route, or -1 if dropped); see
+     * {@link SeatInventory#remap}. Callers keep bookings of the train out while it runs, then {@link #retire()}
+     * this one.
+     */
+    public TrainInventory relayout(int[] newSeatsPerCoach, int newLegs, int[] stopMap) {
+        TrainInventory moved = new TrainInventory(newSeatsPerCoach, newLegs);
+        toOccupancy().forEach((date, words) -> moved.restored.put(date,
+                SeatInventory.remap(words, seatsPerCoach, legs, moved.seatsPerCoach, newLegs, stopMap)));
+        waitlists.forEach((date, waitlist) -> moved.waitlists.put(date, waitlist.relayout(stopMap)));
+        return moved;
+    }
+
+    /**
+     * Marks this inventory and every date partition it has handed out, or will hand out, as replaced.
+     */
+    public void retire() {
+        retired = true;
+        partitions.values().forEach(SeatInventory::retire);
+    }
+
+    /**
+     * Occupancy words of every live date, in date order, for persistence.
+     */
+    public Map<LocalDate, List<long[]>> toOccupancy() {
+        evictExpired();
+        Map<LocalDate, List<long[]>> occupancy = new TreeMap<>(restored);
+        partitions.forEach((date, seats) -> occupancy.put(date, seats.toOccupancy()));
+        return occupancy;
+    }
+}
@@ -0,0 +1,148 @@
+package ticket.booking.inventory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * Booking requests waiting for a seat on one train and date, in the order they arrived. Each request gets the
+ * next waitlist number (WL 1, WL 2, ...) and keeps it; freed seats are offered to waiting requests in number
+ * order by {@link #promote}.
+ * <p>
+ * Changes are made by one thread at a time (the train's booking shard) while any thread may ask for a
+ * position, so the queue is a lock-free {@link ConcurrentLinkedQueue} and {@link #position} is a subtraction.
+ * Withdrawn requests are not searched for in the queue: they are dropped from the live set and skipped once
+ * they reach the head. A position therefore counts everyone still queued ahead, including withdrawals not yet
+ * skipped, so it can only improve over time.
+ * <p>
+ * There is no separate RAC (reservation against cancellation) tier. RAC lets two waiting passengers board on
+ * one shared side berth, but a seat here is a single bit per leg, with no berth types and no half-occupied
+ * state to share. RAC passengers would also be promoted in the same order as this queue, so a RAC tier would
+ * add only the shared boarding that the seat model cannot express.
+ */
+public class Waitlist {
+
+    public static final int CAPACITY = Integer.getInteger("booking.waitlist.capacity", 500);
+    // waiting requests looked at per promotion, so a burst of cancellations costs O(1) each
+    private static final int PROMOTION_SCAN = 64;
+
+    public record Entry(String ticketId, int fromStop, int toStop, long number) {}
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Entry> live = new ConcurrentHashMap<>();
+    private volatile long lastNumber;
+    private volatile long headNumber = 1; // number of the first request still queued, or lastNumber + 1
+
+    /**
+     * Queues a request with the next waitlist number. Returns null if the waitlist is full.
+     */
+    public Entry add(String ticketId, int fromStop, int toStop) {
+        if (live.size() >= CAPACITY) return null;
+        Entry entry = new Entry(ticketId, fromStop, toStop, lastNumber + 1);
+        append(entry);
+        return entry;
+    }
+
+    /**
+     * Queues a request that already has its number, e.g. one read back from disk. Requests must be restored in
+     * number order.
+     */
+    public void restore(String ticketId, int fromStop, int toStop, long number) {
+        if (number <= lastNumber) return;
+        append(new Entry(ticketId, fromStop, toStop, number));
+    }
+
+    private void append(Entry entry) {
+        if (live.isEmpty()) headNumber = entry.number();
+        queue.add(entry);
+        live.put(entry.ticketId(), entry);
+        lastNumber = entry.number();
+    }
+
+    /**
+     * Removes a waiting request. Returns it, or null if it is not waiting (already promoted or withdrawn).
+     */
+    public Entry withdraw(String ticketId) {
+        Entry entry = live.remove(ticketId);
+        if (entry != null) skipDeadHead();
+        return entry;
+    }
+
+    /**
+     * Puts a withdrawn request back, keeping its number, when the withdrawal could not be made durable. It
+     * rejoins at the tail: requests that arrived after it may be offered seats first.
+     */
+    public void requeue(Entry entry) {
+        if (live.putIfAbsent(entry.ticketId(), entry) != null) return;
+        queue.add(entry);
+        skipDeadHead();
+        if (entry.number() < headNumber) headNumber = entry.number();
+    }
+
+    /**
+     * Offers a freed seat to waiting requests in number order. {@code claim} is called for each in turn, up to a
+     * fixed number of them, and returns non-null once it has claimed a seat for one; that request leaves the
+     * queue and the claim's result is returned. Returns null if none of them could be seated.
+     */
+    public <T> T promote(Function<Entry, T> claim) {
+        int scanned = 0;
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext() && scanned < PROMOTION_SCAN; ) {
+            Entry entry = it.next();
+            if (live.get(entry.ticketId()) != entry) {
+                it.remove();
+                continue;
+            }
+            scanned++;
+            T claimed = claim.apply(entry);
+            if (claimed == null) continue;
+            live.remove(entry.ticketId());
+            it.remove();
+            skipDeadHead();
+            return claimed;
+        }
+        return null;
+    }
+
+    /**
+     * A copy of this waitlist for a new route: every waiting request keeps its number, its stops moved by
+     * {@code stopMap} (each old stop's position on the new route, or -1 if dropped). Requests whose stops were
+     * dropped are left out.
+     */
+    public Waitlist relayout(int[] stopMap) {
+        Waitlist moved = new Waitlist();
+        List<Entry> waiting = new ArrayList<>(live.values());
+        waiting.sort(Comparator.comparingLong(Entry::number)); // restore() wants number order
+        for (Entry entry : waiting) {
+            int fromStop = stopMap[entry.fromStop()];
+            int toStop = stopMap[entry.toStop()];
+            if (fromStop >= 0 && fromStop < toStop) moved.restore(entry.ticketId(), fromStop, toStop, entry.number());
+        }
+        moved.lastNumber = Math.max(moved.lastNumber, lastNumber); // new requests keep counting from here
+        if (moved.live.isEmpty()) moved.headNumber = moved.lastNumber + 1;
+        return moved;
+    }
+
+    /**
+     * Position of a waiting request (1 = next in line), or 0 if it is no longer waiting.
+     */
+    public long position(String ticketId) {
+        Entry entry = live.get(ticketId);
+        if (entry == null) return 0;
+        return Math.max(1, entry.number() - headNumber + 1);
+    }
+
+    public int size() {
+        return live.size();
+    }
+
+    private void skipDeadHead() {
+        Entry head;
+        while ((head = queue.peek()) != null && live.get(head.ticketId()) != head) queue.poll();
+        headNumber = head == null ? lastNumber + 1 : head.number();
+    }
+}
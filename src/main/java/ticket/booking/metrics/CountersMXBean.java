@@ -0,0 +1,16 @@
+package ticket.booking.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link Metrics} counters, registered as {@code ticket.booking:type=Counters}.
+ */
+public interface CountersMXBean {
+
+    Map<String, Long> getCounters();
+
+    /**
+     * Share of explicit seat picks, since the process started, that found the seat already taken.
+     */
+    double getSeatContentionRate();
+}
@@ -0,0 +1,130 @@
+package ticket.booking.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distribution in fixed log-linear buckets, in the style of HdrHistogram: every power of two is split
+ * into {@value #SUB_BUCKETS} equal buckets, so any recorded value is known to within about 3% and the
+ * histogram covers nanoseconds to centuries in 1,920 counters.
+ * <p>
+ * Recording is a bucket index computed with a few shifts and one atomic increment; nothing is allocated, so it
+ * can sit on the booking path. Percentiles are read by walking the buckets, which is only done when reporting.
+ */
+public class LatencyHistogram implements LatencyMXBean {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public record Summary(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+                          double p999Millis, double maxMillis) {}
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // lost a race with another recorder; re-read
+        }
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(0.50);
+    }
+
+    @Override
+    public double getP90Millis() {
+        return percentileMillis(0.90);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(0.99);
+    }
+
+    @Override
+    public double getP999Millis() {
+        return percentileMillis(0.999);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * The value at or below which a fraction {@code p} of recorded values fall, as the top of its bucket.
+     */
+    public double percentileMillis(double p) {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) total += counts[i] = buckets.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestInBucket(i), maxNanos.get()) / NANOS_PER_MILLI;
+        }
+        return getMaxMillis();
+    }
+
+    public Summary summary() {
+        return new Summary(getCount(), getMeanMillis(), getP50Millis(), getP90Millis(), getP99Millis(),
+                getP999Millis(), getMaxMillis());
+    }
+
+    // values below SUB_BUCKETS get a bucket each; above, the top SUB_BITS bits after the leading one pick it
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS | sub) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,22 @@
+package ticket.booking.metrics;
+
+/**
+ * JMX view of one {@link LatencyHistogram}, registered as {@code ticket.booking:type=Latency,name=<name>}.
+ * Times are in milliseconds since the process started.
+ */
+public interface LatencyMXBean {
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
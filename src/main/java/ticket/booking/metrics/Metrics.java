@@ -0,0 +1,139 @@
+package ticket.booking.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters for the hot paths. Once {@link #publish()} has run (the booking
+ * store does it on load) they are visible over JMX under {@code ticket.booking} and, with
+ * {@code -Dbooking.metrics.dumpSeconds=N}, printed every N seconds.
+ * <p>
+ * Instruments are plain static fields, so recording is a field read plus the histogram's atomic increment:
+ * {@code long start = System.nanoTime(); ... Metrics.BOOK.recordSince(start);}
+ */
+public final class Metrics {
+
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new LinkedHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new LinkedHashMap<>();
+
+    public static final LatencyHistogram SEARCH = histogram("search");
+    public static final LatencyHistogram BOOK = histogram("book");
+    public static final LatencyHistogram BOOK_TATKAL = histogram("book.tatkal");
+    public static final LatencyHistogram CANCEL = histogram("cancel");
+    public static final LatencyHistogram LOGIN = histogram("login");
+    public static final LatencyHistogram BCRYPT_CHECK = histogram("bcrypt.check");
+    public static final LatencyHistogram BCRYPT_HASH = histogram("bcrypt.hash");
+    public static final LatencyHistogram JSON_LOAD = histogram("json.load");
+    public static final LatencyHistogram JSON_SAVE = histogram("json.save");
+
+    public static final LongAdder BOOKED = counter("book.booked");
+    public static final LongAdder SEAT_TAKEN = counter("book.seatTaken");
+    public static final LongAdder BOOK_ERRORS = counter("book.errors");
+    public static final LongAdder SURGE_SOLD_OUT = counter("tatkal.soldOut");
+    public static final LongAdder SURGE_SHED = counter("tatkal.retryLater");
+    public static final LongAdder CANCELLED = counter("cancel.cancelled");
+    public static final LongAdder LOGIN_FAILED = counter("login.failed");
+    public static final LongAdder JSON_LOAD_BYTES = counter("json.load.bytes");
+    public static final LongAdder JSON_SAVE_BYTES = counter("json.save.bytes");
+
+    private static final long DUMP_SECONDS = Long.getLong("booking.metrics.dumpSeconds", 0);
+
+    private static boolean published; // guarded by Metrics.class
+
+    private Metrics() {
+    }
+
+    private static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        HISTOGRAMS.put(name, histogram);
+        return histogram;
+    }
+
+    private static LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        COUNTERS.put(name, counter);
+        return counter;
+    }
+
+    public static Map<String, LatencyHistogram.Summary> latencies() {
+        Map<String, LatencyHistogram.Summary> summaries = new LinkedHashMap<>();
+        HISTOGRAMS.forEach((name, histogram) -> summaries.put(name, histogram.summary()));
+        return summaries;
+    }
+
+    public static Map<String, Long> counters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    /**
+     * Share of explicit seat picks that found the seat already taken.
+     */
+    public static double seatContentionRate() {
+        long taken = SEAT_TAKEN.sum();
+        long claims = taken + BOOKED.sum();
+        return claims == 0 ? 0 : (double) taken / claims;
+    }
+
+    /**
+     * Every histogram and counter as a text table, times in milliseconds.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-14s %10s %9s %9s %9s %9s %9s %9s%n",
+                "latency", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        latencies().forEach((name, s) -> report.append(String.format("%-14s %10d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                name, s.count(), s.meanMillis(), s.p50Millis(), s.p90Millis(), s.p99Millis(), s.p999Millis(),
+                s.maxMillis())));
+        counters().forEach((name, value) -> report.append(String.format("%-18s %,d%n", name, value)));
+        report.append(String.format("%-18s %.2f%%%n", "seat contention", 100 * seatContentionRate()));
+        return report.toString();
+    }
+
+    /**
+     * Registers the MBeans and starts the periodic dump, once per process. Recording works without it.
+     */
+    public static synchronized void publish() {
+        if (published) return;
+        published = true;
+        register();
+        if (DUMP_SECONDS > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> System.out.print(report()), DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (LatencyHistogram histogram : HISTOGRAMS.values()) {
+                server.registerMBean(histogram, new ObjectName("ticket.booking:type=Latency,name=" + histogram.getName()));
+            }
+            server.registerMBean(new CountersMXBean() {
+                @Override
+                public Map<String, Long> getCounters() {
+                    return counters();
+                }
+
+                @Override
+                public double getSeatContentionRate() {
+                    return seatContentionRate();
+                }
+            }, new ObjectName("ticket.booking:type=Counters"));
+        } catch (JMException e) {
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+
+/**
+ * One mutation of the booking state, as written to the {@link EventLog}. Ticket fields are flattened so an
+ * event never drags a whole train or user along with it.
+ */
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public class BookingEvent {
+
+    public enum Type { SIGNUP, BOOK, CANCEL, PASSWORD, WAITLIST }
+
+    private Type type;
+    private String userId;
+    private User user;
+    private String hashedPassword;
+    private String ticketId;
+    private String trainNo;
+    private String trainName;
+    private String source;
+    private String destination;
+    private String travelDate;
+    private String passengerName;
+    private int row;
+    private int seat;
+    private long waitlistNo;
+
+    public BookingEvent() {
+    }
+
+    public static BookingEvent signUp(User user) {
+        BookingEvent event = new BookingEvent();
+        event.type = Type.SIGNUP;
+        event.userId = user.getUserId();
+        event.user = user;
+        return event;
+    }
+
+    public static BookingEvent passwordChange(String userId, String hashedPassword) {
+        BookingEvent event = new BookingEvent();
+        event.type = Type.PASSWORD;
+        event.userId = userId;
+        event.hashedPassword = hashedPassword;
+        return event;
+    }
+
+    public static BookingEvent book(String userId, Ticket ticket) {
+        return ofTicket(Type.BOOK, userId, ticket);
+    }
+
+    public static BookingEvent cancel(String userId, Ticket ticket) {
+        return ofTicket(Type.CANCEL, userId, ticket);
+    }
+
+    /**
+     * A ticket joining the waitlist. Its promotion is logged later as a {@link Type#BOOK} of the same ticketId.
+     */
+    public static BookingEvent waitlist(String userId, Ticket ticket) {
+        return ofTicket(Type.WAITLIST, userId, ticket);
+    }
+
+    private static BookingEvent ofTicket(Type type, String userId, Ticket ticket) {
+        BookingEvent event = new BookingEvent();
+        event.type = type;
+        event.userId = userId;
+        event.ticketId = ticket.getTicketId();
+        event.trainNo = ticket.getTrainNo();
+        event.trainName = ticket.getTrainName();
+        event.source = ticket.getSource();
+        event.destination = ticket.getDestination();
+        event.travelDate = ticket.getTravelDate();
+        event.passengerName = ticket.getPassengerName();
+        event.row = ticket.getRow();
+        event.seat = ticket.getSeat();
+        event.waitlistNo = ticket.getWaitlistNo();
+        return event;
+    }
+
+    public Ticket toTicket() {
+        Ticket ticket = new Ticket();
+        ticket.setTicketId(ticketId);
+        ticket.setTrainNo(trainNo);
+        ticket.setTrainName(trainName);
+        ticket.setSource(source);
+        ticket.setDestination(destination);
+        ticket.setTravelDate(travelDate);
+        ticket.setPassengerName(passengerName);
+        ticket.setRow(row);
+        ticket.setSeat(seat);
+        ticket.setWaitlistNo(waitlistNo);
+        return ticket;
+    }
+
+    // Getters & Setters
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public String getHashedPassword() {
+        return hashedPassword;
+    }
+
+    public void setHashedPassword(String hashedPassword) {
+        this.hashedPassword = hashedPassword;
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public String getTrainNo() {
+        return trainNo;
+    }
+
+    public void setTrainNo(String trainNo) {
+        this.trainNo = trainNo;
+    }
+
+    public String getTrainName() {
+        return trainName;
+    }
+
+    public void setTrainName(String trainName) {
+        this.trainName = trainName;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getTravelDate() {
+        return travelDate;
+    }
+
+    public void setTravelDate(String travelDate) {
+        this.travelDate = travelDate;
+    }
+
+    public String getPassengerName() {
+        return passengerName;
+    }
+
+    public void setPassengerName(String passengerName) {
+        this.passengerName = passengerName;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    public void setSeat(int seat) {
+        this.seat = seat;
+    }
+
+    public long getWaitlistNo() {
+        return waitlistNo;
+    }
+
+    public void setWaitlistNo(long waitlistNo) {
+        this.waitlistNo = waitlistNo;
+    }
+}
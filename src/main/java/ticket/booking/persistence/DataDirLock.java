@@ -0,0 +1,53 @@
+package ticket.booking.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exclusive ownership of a data directory by this process, through an OS file lock on {@code .lock} inside it.
+ * Two processes writing the same users.json, trains.json and logs would silently overwrite each other's
+ * changes, so the second one is refused instead. The lock is held until the process exits; the OS drops it
+ * even if the process dies.
+ */
+public final class DataDirLock {
+
+    private static final String LOCK_FILE = ".lock";
+    // one lock per directory per process: asking twice from one JVM would otherwise throw
+    private static final Map<Path, FileLock> HELD = new ConcurrentHashMap<>();
+
+    private DataDirLock() {
+    }
+
+    /**
+     * Takes the lock on {@code dataDir}, or returns at once if this process already holds it.
+     *
+     * @throws IOException if another process holds the lock, or the lock file cannot be created
+     */
+    public static void acquire(Path dataDir) throws IOException {
+        Path key = dataDir.toAbsolutePath().normalize();
+        synchronized (HELD) {
+            if (HELD.containsKey(key)) return;
+            Files.createDirectories(key);
+            FileChannel channel = FileChannel.open(key.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IOException("Data directory " + key + " is in use by another process");
+            }
+            HELD.put(key, lock);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ticket.booking.persistence;
+
+import java.nio.file.Path;
+
+/**
+ * Locations of the local JSON database. The directory defaults to {@code src/main/resources/localDB} and can be
+ * pointed elsewhere with {@code -Dbooking.dataDir=...} (benchmarks and tests run against generated data).
+ */
+public final class DataFiles {
+
+    public static final String DATA_DIR_PROPERTY = "booking.dataDir";
+    private static final String DEFAULT_DATA_DIR = "src/main/resources/localDB";
+
+    private DataFiles() {
+    }
+
+    public static Path dataDir() {
+        return Path.of(System.getProperty(DATA_DIR_PROPERTY, DEFAULT_DATA_DIR));
+    }
+
+    public static Path users() {
+        return dataDir().resolve("users.json");
+    }
+
+    public static Path trains() {
+        return dataDir().resolve("trains.json");
+    }
+
+    public static Path trainSnapshot() {
+        return dataDir().resolve("trains.bin");
+    }
+
+    public static Path bookingLog() {
+        return dataDir().resolve("bookings.log");
+    }
+
+    /**
+     * Log of one booking shard; user events stay in {@link #bookingLog()}.
+     */
+    public static Path bookingLog(int shard) {
+        return dataDir().resolve("bookings-" + shard + ".log");
+    }
+}
@@ -0,0 +1,286 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of {@link BookingEvent}s, one compact JSON object per line.
+ * <p>
+ * Appends are handed to a single writer thread that drains everything queued so far, writes it in one go and
+ * fsyncs once for the whole group (group commit). The future returned by {@link #append} completes when the
+ * event is on disk. {@link #rotate()} moves the current log aside so a snapshot can be written; the rotated
+ * segment is replayed too until {@link #deleteRotated()} is called, so replay must be idempotent.
+ * <p>
+ * A group whose write or fsync fails is cut back off the file, so neither a torn line nor events whose callers
+ * were told they failed are replayed later. If the file cannot be cut back, every later append fails instead of
+ * writing after the bad tail.
+ */
+public class EventLog implements Closeable {
+
+    private static final int MAX_BATCH = 1024;
+
+    private final Path path;
+    private final Path rotatedPath;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel; // only touched by the writer thread after construction
+    private long durable; // bytes of the current file known to be fsynced; writer thread only
+    private volatile IOException failed; // a failed write that could not be cut back off the file
+    private volatile boolean closed;
+
+    // a queued line, a rotation marker (no bytes) or the shutdown marker (neither)
+    private record Entry(byte[] bytes, CompletableFuture<Void> done) {}
+
+    private static final Entry SHUTDOWN = new Entry(null, null);
+
+    public EventLog(Path path) throws IOException {
+        this.path = path;
+        this.rotatedPath = path.resolveSibling(path.getFileName() + ".old");
+        this.channel = open(path);
+        this.durable = channel.position();
+        this.writer = new Thread(this::writeLoop, "event-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues an event. The returned future completes once it has been fsynced.
+     */
+    public CompletableFuture<Void> append(BookingEvent event) {
+        return appendAll(List.of(event));
+    }
+
+    /**
+     * Queues several events as a single write, so they reach the file together and share one fsync. The
+     * returned future completes once all of them are on disk. A crash in the middle of the write can still
+     * leave only the first few of them behind.
+     */
+    public CompletableFuture<Void> appendAll(List<BookingEvent> events) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (closed) {
+            done.completeExceptionally(new IOException("Event log is closed"));
+            return done;
+        }
+        if (failed != null) {
+            done.completeExceptionally(disabled());
+            return done;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * events.size());
+            for (BookingEvent event : events) {
+                bytes.write(objectMapper.writeValueAsBytes(event));
+                bytes.write('\n');
+            }
+            queue.add(new Entry(bytes.toByteArray(), done));
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    /**
+     * Moves everything logged so far to the rotated segment and starts a fresh log. Callers must stop appending
+     * while this runs so the rotated segment lines up with the snapshot they are about to write.
+     */
+    public CompletableFuture<Void> rotate() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(new Entry(null, done));
+        return done;
+    }
+
+    /**
+     * Drops the rotated segment once the snapshot covering it is safely written.
+     */
+    public void deleteRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    public long size() {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Feeds every event in the rotated segment and then the live log, in order, to {@code handler}. A torn last
+     * line left by a crash mid-write is skipped.
+     */
+    public void replay(Consumer<BookingEvent> handler) throws IOException {
+        for (Path segment : List.of(rotatedPath, path)) {
+            if (!Files.exists(segment)) continue;
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    BookingEvent event;
+                    try {
+                        event = objectMapper.readValue(line, BookingEvent.class);
+                    } catch (IOException e) {
+                        System.err.println("Skipping unreadable event log entry: " + e.getMessage());
+                        continue;
+                    }
+                    handler.accept(event);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            running = !batch.contains(SHUTDOWN);
+            try {
+                if (failed != null) throw disabled();
+                writeBatch(batch);
+            } catch (IOException e) {
+                for (Entry entry : batch) {
+                    if (entry.done() != null) entry.done().completeExceptionally(e);
+                }
+                if (failed == null) {
+                    System.err.println("Error writing event log: " + e.getMessage());
+                    discardUndurable();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Cuts the file back to what was last fsynced, dropping the failed group. A rotation that failed between
+    // closing the file and opening the new one leaves the channel closed; everything in that file was fsynced.
+    private void discardUndurable() {
+        try {
+            if (!channel.isOpen()) {
+                channel = open(path);
+                durable = channel.position();
+            }
+            channel.truncate(durable);
+            channel.position(durable);
+        } catch (IOException e) {
+            failed = e;
+            System.err.println("Event log disabled, could not undo a failed write: " + e.getMessage());
+        }
+    }
+
+    private IOException disabled() {
+        return new IOException("Event log is disabled after a failed write", failed);
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry == SHUTDOWN) continue;
+            if (entry.bytes() != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(entry.bytes());
+                while (buffer.hasRemaining()) channel.write(buffer);
+                pending.add(entry.done());
+                continue;
+            }
+            // rotation: make what we have durable, then move it aside
+            channel.force(false);
+            durable = channel.position();
+            pending.forEach(done -> done.complete(null));
+            pending.clear();
+            channel.close();
+            moveToRotated();
+            channel = open(path);
+            durable = channel.position();
+            entry.done().complete(null);
+        }
+        if (!pending.isEmpty()) {
+            channel.force(false);
+            durable = channel.position();
+            pending.forEach(done -> done.complete(null));
+        }
+    }
+
+    // A rotated segment still on disk means the snapshot after the last rotation never finished, so its events
+    // are not covered by any snapshot yet: keep them and add the current log after them.
+    private void moveToRotated() throws IOException {
+        if (!Files.exists(rotatedPath)) {
+            Files.move(path, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        try (FileChannel from = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(rotatedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            long size = from.size();
+            while (position < size) position += from.transferTo(position, size - position, to);
+            to.force(false);
+        }
+        Files.delete(path);
+    }
+
+    // Positioned after the last complete line: a torn line left by a crash is cut off, so the next append does
+    // not land on the end of it and make both unreadable.
+    private static FileChannel open(Path path) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long end = endOfLastLine(channel);
+            if (end < channel.size()) channel.truncate(end);
+            channel.position(end);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long endOfLastLine(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            int length = (int) Math.min(buffer.capacity(), end);
+            long start = end - length;
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) throw new IOException("Event log shrank");
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') return start + i + 1;
+            }
+            end = start;
+        }
+        return 0;
+    }
+}
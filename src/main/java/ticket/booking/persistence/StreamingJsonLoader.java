@@ -0,0 +1,175 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads trains.json and users.json one record at a time with Jackson's {@link JsonParser}, handing each record
+ * to a callback as soon as it is parsed. Nothing holds the whole document, so callers can index records while
+ * the rest of the file is still being read.
+ * <p>
+ * Trains are parsed by hand: the seat matrix is reduced to seats per coach and occupancy goes straight into
+ * {@code long[]} words, so no {@code List<List<Integer>>} is ever built. Users go through data binding one
+ * object at a time, which keeps the exact same mapping as the rest of the service.
+ */
+public final class StreamingJsonLoader {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectReader USER_READER = objectMapper.readerFor(User.class);
+
+    private StreamingJsonLoader() {
+    }
+
+    /**
+     * Streams every train in {@code file} to {@code sink}. Returns the number of trains read; a missing or
+     * empty file reads as no trains.
+     */
+    public static int readTrains(Path file, Consumer<Train> sink) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) return 0;
+        long start = System.nanoTime();
+        int count = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(file.toFile())) {
+            if (!startArray(parser)) return 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                sink.accept(readTrain(parser));
+                count++;
+            }
+        }
+        recordLoad(file, start);
+        return count;
+    }
+
+    /**
+     * Streams every user in {@code file} to {@code sink}. Returns the number of users read.
+     */
+    public static int readUsers(Path file, Consumer<User> sink) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) return 0;
+        long start = System.nanoTime();
+        int count = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(file.toFile())) {
+            if (!startArray(parser)) return 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                sink.accept(USER_READER.readValue(parser));
+                count++;
+            }
+        }
+        recordLoad(file, start);
+        return count;
+    }
+
+    // the time includes whatever the sink does with each object, e.g. indexing it
+    private static void recordLoad(Path file, long start) throws IOException {
+        Metrics.JSON_LOAD.recordSince(start);
+        Metrics.JSON_LOAD_BYTES.add(Files.size(file));
+    }
+
+    private static boolean startArray(JsonParser parser) throws IOException {
+        JsonToken first = parser.nextToken();
+        if (first == null || first == JsonToken.VALUE_NULL) return false;
+        if (first != JsonToken.START_ARRAY) {
+            throw new IOException("Expected a JSON array at " + parser.currentLocation());
+        }
+        return true;
+    }
+
+    // parser is on the train's START_OBJECT; leaves it on the matching END_OBJECT
+    private static Train readTrain(JsonParser parser) throws IOException {
+        Train train = new Train();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) continue;
+            switch (field) {
+                case "trainNo" -> train.setTrainNo(parser.getValueAsString());
+                case "trainName" -> train.setTrainName(parser.getValueAsString());
+                case "seats" -> train.setSeatsPerCoach(readSeatsPerCoach(parser));
+                case "stationTimes" -> train.setStationTimes(readStringMap(parser));
+                case "stations" -> train.setStations(readStrings(parser));
+                case "occupancy" -> train.restoreOccupancy(readOccupancy(parser));
+                default -> parser.skipChildren(); // e.g. trainInfo written by older versions
+            }
+        }
+        return train;
+    }
+
+    // [[0,1,0],[0,0]] -> {3, 2}
+    private static int[] readSeatsPerCoach(JsonParser parser) throws IOException {
+        int[] layout = new int[16];
+        int coaches = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            int seats = 0;
+            if (parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) seats++;
+            }
+            if (coaches == layout.length) layout = Arrays.copyOf(layout, coaches * 2);
+            layout[coaches++] = seats;
+        }
+        return Arrays.copyOf(layout, coaches);
+    }
+
+    private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        Map<String, String> map = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            parser.nextToken();
+            map.put(key, parser.getValueAsString());
+        }
+        return map;
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) values.add(parser.getValueAsString());
+        return values;
+    }
+
+    // {"2025-10-16": [[1, 0], [0, 4]], ...}; a date that does not parse is skipped with its occupancy, so one bad
+    // entry costs that date's bookings rather than every train after it
+    private static Map<LocalDate, List<long[]>> readOccupancy(JsonParser parser) throws IOException {
+        Map<LocalDate, List<long[]>> occupancy = new TreeMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            parser.nextToken();
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            LocalDate date;
+            try {
+                date = LocalDate.parse(key);
+            } catch (DateTimeParseException e) {
+                System.err.println("Skipping occupancy with unreadable date \"" + key + "\" at line "
+                        + parser.currentLocation().getLineNr());
+                parser.skipChildren();
+                continue;
+            }
+            List<long[]> coaches = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                long[] words = new long[8];
+                int size = 0;
+                if (parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (size == words.length) words = Arrays.copyOf(words, size * 2);
+                        words[size++] = parser.getLongValue();
+                    }
+                }
+                coaches.add(Arrays.copyOf(words, size));
+            }
+            occupancy.put(date, coaches);
+        }
+        return occupancy;
+    }
+}
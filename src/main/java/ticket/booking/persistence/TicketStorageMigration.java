@@ -0,0 +1,150 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.type.TypeReference;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One-time migration of users.json from the old layout, where every ticket embedded a full copy of its train
+ * (seat matrix included), to the normalized layout where a ticket only carries the train number.
+ * <p>
+ * Usage: {@code TicketStorageMigration [users.json]} migrates in place, keeping a {@code .bak} copy.
+ * {@code TicketStorageMigration --compare [users]} generates a dataset and prints size and save/load time
+ * of both layouts.
+ */
+public class TicketStorageMigration {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--compare")) {
+            compare(args.length > 1 ? Integer.parseInt(args[1]) : 10_000);
+            return;
+        }
+        Path usersFile = args.length > 0 ? Path.of(args[0]) : DataFiles.users();
+        if (!migrate(usersFile)) System.out.println(usersFile + " is already normalized.");
+    }
+
+    /**
+     * Strips embedded trains (and the derived ticketInfo/trainInfo fields) from every ticket in the file.
+     * Returns false, leaving the file untouched, if there was nothing to strip.
+     */
+    public static boolean migrate(Path usersFile) throws IOException {
+        if (!Files.exists(usersFile)) return false;
+        long before = Files.size(usersFile);
+        JsonNode users = objectMapper.readTree(usersFile.toFile());
+        if (!users.isArray()) return false;
+
+        boolean changed = false;
+        for (JsonNode user : users) {
+            JsonNode tickets = user.get("ticketsBooked");
+            if (tickets == null || !tickets.isArray()) continue;
+            for (JsonNode ticket : tickets) {
+                if (!(ticket instanceof ObjectNode node)) continue;
+                changed |= node.remove("train") != null;
+                changed |= node.remove("ticketInfo") != null;
+            }
+        }
+        if (!changed) return false;
+
+        Path backup = usersFile.resolveSibling(usersFile.getFileName() + ".bak");
+        Files.copy(usersFile, backup, StandardCopyOption.REPLACE_EXISTING);
+        // round-trip through the entity classes so the result is exactly what the service writes
+        List<User> normalized = objectMapper.convertValue(users, new TypeReference<List<User>>() {});
+        AtomicFiles.write(usersFile, objectMapper.writeValueAsBytes(normalized));
+        System.out.printf("Migrated %s: %,d -> %,d bytes (backup in %s)%n",
+                usersFile, before, Files.size(usersFile), backup.getFileName());
+        return true;
+    }
+
+    private static void compare(int userCount) throws IOException {
+        List<Train> trains = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Train train = new Train();
+            train.setTrainNo(String.valueOf(12000 + i));
+            train.setTrainName("Express " + i);
+            train.setStations(List.of("station-a-" + i, "station-b-" + i, "station-c-" + i));
+            List<List<Integer>> seats = new ArrayList<>();
+            for (int coach = 0; coach < 20; coach++) seats.add(new ArrayList<>(Collections.nCopies(72, 0)));
+            train.setSeats(seats);
+            trains.add(train);
+        }
+
+        List<User> users = new ArrayList<>(userCount);
+        ArrayNode legacy = objectMapper.createArrayNode();
+        for (int i = 0; i < userCount; i++) {
+            User user = new User("user" + i, "user" + i + "@example.com", String.valueOf(9_000_000_000L + i),
+                    null, "$2a$12$" + UUID.randomUUID(), new ArrayList<>(), UUID.randomUUID().toString());
+            ArrayNode legacyTickets = objectMapper.createArrayNode();
+            for (int t = 0; t < 3; t++) {
+                Train train = trains.get((i * 3 + t) % trains.size());
+                Ticket ticket = new Ticket();
+                ticket.setTrainNo(train.getTrainNo());
+                ticket.setTrainName(train.getTrainName());
+                ticket.setSource(train.getStations().get(0));
+                ticket.setDestination(train.getStations().get(2));
+                ticket.setTravelDate("2025-10-16");
+                ticket.setPassengerName(user.getName());
+                ticket.setRow(t);
+                ticket.setSeat(i % 72);
+                user.getTicketsBooked().add(ticket);
+
+                ObjectNode legacyTicket = objectMapper.valueToTree(ticket);
+                legacyTicket.set("train", objectMapper.valueToTree(train));
+                legacyTickets.add(legacyTicket);
+            }
+            users.add(user);
+            ObjectNode legacyUser = objectMapper.valueToTree(user);
+            legacyUser.set("ticketsBooked", legacyTickets);
+            legacy.add(legacyUser);
+        }
+
+        Path dir = Files.createTempDirectory("ticket-storage");
+        Path legacyFile = dir.resolve("users-legacy.json");
+        Path normalizedFile = dir.resolve("users-normalized.json");
+        try {
+            long legacySave = time(() -> objectMapper.writeValue(legacyFile.toFile(), legacy));
+            long normalizedSave = time(() -> objectMapper.writeValue(normalizedFile.toFile(), users));
+            long legacyLoad = time(() -> objectMapper.readValue(legacyFile.toFile(), new TypeReference<List<User>>() {}));
+            long normalizedLoad = time(() -> objectMapper.readValue(normalizedFile.toFile(), new TypeReference<List<User>>() {}));
+
+            System.out.printf("%,d users, %,d tickets%n", userCount, userCount * 3);
+            System.out.printf("%-12s %15s %10s %10s%n", "layout", "bytes", "save ms", "load ms");
+            System.out.printf("%-12s %,15d %10d %10d%n", "embedded", Files.size(legacyFile), legacySave, legacyLoad);
+            System.out.printf("%-12s %,15d %10d %10d%n", "normalized", Files.size(normalizedFile), normalizedSave, normalizedLoad);
+        } finally {
+            Files.deleteIfExists(legacyFile);
+            Files.deleteIfExists(normalizedFile);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    // best of three, so JIT warm-up does not dominate
+    private static long time(IoTask task) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000;
+    }
+}
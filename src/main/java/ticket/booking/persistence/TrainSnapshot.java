@@ -0,0 +1,313 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.entities.Train;
+import ticket.booking.inventory.SeatInventory;
+import ticket.booking.inventory.TrainInventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of the trains (trains.bin), the format compaction writes. trains.json stays the import/export
+ * format; see {@link #main}.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header (40 bytes)  magic "IRTS" | version u16 | flags u16 | trains i32 | strings i32 | body length i64
+ *                    | body CRC32C i32 | created (epoch second) i64 | header CRC32C i32
+ * string table       per string: length u16, UTF-8 bytes
+ * train records      trainNo i32 | trainName i32 | legs u16 | coaches u16, per coach: seats u16
+ *                    | stations u16, per stop: station i32 | station times u16, per entry: key i32, value i32
+ *                    | dates i32, per date: epoch day i32, occupancy bits
+ * </pre>
+ * Strings are indexes into the string table (-1 for null), so a station name is stored once however many
+ * trains stop there. A date's occupancy is one bit per seat per leg (coach by coach, leg by leg, seat by
+ * seat, least significant bit first), padded to a whole byte; dates with nothing booked are not written.
+ * <p>
+ * {@link #read} maps the file with {@link FileChannel#map} and checks both checksums before handing out any
+ * train. Occupancy is not copied at load: each date is a view over the mapping, and a coach's bits are only
+ * unpacked when that date is first booked or queried. Saving goes through a temp file and a rename, so a
+ * mapping of the previous snapshot stays valid.
+ */
+public final class TrainSnapshot {
+
+    private static final int MAGIC = 0x49525453; // "IRTS"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int NONE = -1;
+
+    private TrainSnapshot() {
+    }
+
+    /**
+     * Converts between the two formats: {@code export [trains.bin] [trains.json]} or
+     * {@code import [trains.json] [trains.bin]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: TrainSnapshot export [trains.bin] [trains.json] | import [trains.json] [trains.bin]");
+            return;
+        }
+        boolean export = args[0].equals("export");
+        Path from = args.length > 1 ? Path.of(args[1]) : export ? DataFiles.trainSnapshot() : DataFiles.trains();
+        Path to = args.length > 2 ? Path.of(args[2]) : export ? DataFiles.trains() : DataFiles.trainSnapshot();
+        List<Train> trains = new ArrayList<>();
+        if (export) {
+            read(from, trains::add);
+            new ObjectMapper().writeValue(to.toFile(), trains);
+        } else {
+            StreamingJsonLoader.readTrains(from, trains::add);
+            save(to, write(trains));
+        }
+        System.out.printf("Wrote %,d trains to %s (%,d bytes)%n", trains.size(), to, Files.size(to));
+    }
+
+    /**
+     * Serializes {@code trains}, occupancy included. Callers keep bookings out while this runs.
+     */
+    public static byte[] write(List<Train> trains) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Buffer records = new Buffer();
+        DataOutputStream out = new DataOutputStream(records);
+        for (Train train : trains) {
+            writeTrain(out, train, strings);
+        }
+        out.flush();
+
+        Buffer table = new Buffer();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        for (String value : strings.keySet()) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > 0xFFFF) throw new IOException("String too long for the snapshot: " + value.length());
+            tableOut.writeShort(utf8.length);
+            tableOut.write(utf8);
+        }
+        tableOut.flush();
+
+        long bodyLength = (long) table.size() + records.size();
+        if (HEADER_SIZE + bodyLength > Integer.MAX_VALUE) throw new IOException("Train snapshot exceeds 2 GB");
+        ByteBuffer snapshot = ByteBuffer.allocate(HEADER_SIZE + (int) bodyLength);
+        snapshot.position(HEADER_SIZE);
+        snapshot.put(table.bytes(), 0, table.size()).put(records.bytes(), 0, records.size());
+        int bodyCrc = crc(ByteBuffer.wrap(snapshot.array(), HEADER_SIZE, (int) bodyLength));
+        snapshot.position(0);
+        snapshot.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(trains.size()).putInt(strings.size())
+                .putLong(bodyLength).putInt(bodyCrc)
+                .putLong(System.currentTimeMillis() / 1000);
+        snapshot.putInt(crc(ByteBuffer.wrap(snapshot.array(), 0, HEADER_SIZE - 4)));
+        return snapshot.array();
+    }
+
+    /**
+     * Writes a snapshot made by {@link #write} to {@code file} via a temp file and an atomic rename.
+     */
+    public static void save(Path file, byte[] snapshot) throws IOException {
+        AtomicFiles.write(file, snapshot);
+    }
+
+    /**
+     * Maps {@code file}, verifies it and streams every train to {@code sink}. Returns the number of trains.
+     *
+     * @throws IOException if the file is not a snapshot, has an unknown version or fails a checksum; no train
+     *                     has been handed out in that case
+     */
+    public static int read(Path file, Consumer<Train> sink) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) throw new IOException(file + " is too short to be a train snapshot");
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after close
+        }
+        if (mapped.getInt(0) != MAGIC) throw new IOException(file + " is not a train snapshot");
+        if (crc(mapped.slice(0, HEADER_SIZE - 4)) != mapped.getInt(HEADER_SIZE - 4)) {
+            throw new IOException(file + " has a corrupt header");
+        }
+        short version = mapped.getShort(4);
+        if (version != VERSION) throw new IOException(file + " has unsupported snapshot version " + version);
+        int trainCount = mapped.getInt(8);
+        int stringCount = mapped.getInt(12);
+        long bodyLength = mapped.getLong(16);
+        if (bodyLength != mapped.capacity() - HEADER_SIZE) throw new IOException(file + " is truncated");
+        ByteBuffer body = mapped.slice(HEADER_SIZE, (int) bodyLength);
+        if (crc(body.duplicate()) != mapped.getInt(24)) throw new IOException(file + " fails its checksum");
+
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            int length = Short.toUnsignedInt(body.getShort());
+            strings[i] = StandardCharsets.UTF_8.decode(body.slice(body.position(), length)).toString();
+            body.position(body.position() + length);
+        }
+        for (int t = 0; t < trainCount; t++) {
+            sink.accept(readTrain(body, strings));
+        }
+        return trainCount;
+    }
+
+    private static void writeTrain(DataOutputStream out, Train train, Map<String, Integer> strings) throws IOException {
+        TrainInventory inventory = train.getInventory();
+        int legs = inventory.getLegCount();
+        int[] seatsPerCoach = train.getSeatsPerCoach();
+
+        out.writeInt(intern(strings, train.getTrainNo()));
+        out.writeInt(intern(strings, train.getTrainName()));
+        out.writeShort(legs);
+        out.writeShort(seatsPerCoach.length);
+        for (int seats : seatsPerCoach) out.writeShort(seats);
+        List<String> stations = train.getStations() == null ? List.of() : train.getStations();
+        out.writeShort(stations.size());
+        for (String station : stations) out.writeInt(intern(strings, station));
+        Map<String, String> times = train.getStationTimes() == null ? Map.of() : train.getStationTimes();
+        out.writeShort(times.size());
+        for (Map.Entry<String, String> time : times.entrySet()) {
+            out.writeInt(intern(strings, time.getKey()));
+            out.writeInt(intern(strings, time.getValue()));
+        }
+
+        Map<LocalDate, byte[]> dates = new TreeMap<>();
+        inventory.toOccupancy().forEach((date, coaches) -> {
+            byte[] bits = pack(coaches, seatsPerCoach, legs);
+            if (bits != null) dates.put(date, bits);
+        });
+        out.writeInt(dates.size());
+        for (Map.Entry<LocalDate, byte[]> date : dates.entrySet()) {
+            out.writeInt((int) date.getKey().toEpochDay());
+            out.write(date.getValue());
+        }
+    }
+
+    // Occupancy words -> one bit per seat per leg, or null if no seat is taken. Coaches whose words do not
+    // match the layout (restored for an older layout) would start empty on restore anyway and are left empty.
+    private static byte[] pack(List<long[]> coaches, int[] seatsPerCoach, int legs) {
+        byte[] bits = new byte[(int) ((occupancyBits(seatsPerCoach, legs) + 7) >>> 3)];
+        boolean any = false;
+        long position = 0;
+        for (int r = 0; r < seatsPerCoach.length; r++) {
+            int seats = seatsPerCoach[r];
+            int wordsPerLeg = SeatInventory.occupancyWords(seats, 1);
+            long[] words = r < coaches.size() ? coaches.get(r) : null;
+            boolean matches = words != null && words.length == wordsPerLeg * legs;
+            for (int leg = 0; leg < legs; leg++) {
+                for (int seat = 0; seat < seats; seat++, position++) {
+                    if (matches && (words[leg * wordsPerLeg + (seat >>> 6)] & (1L << seat)) != 0) {
+                        bits[(int) (position >>> 3)] |= (byte) (1 << (position & 7));
+                        any = true;
+                    }
+                }
+            }
+        }
+        return any ? bits : null;
+    }
+
+    private static long occupancyBits(int[] seatsPerCoach, int legs) {
+        long bits = 0;
+        for (int seats : seatsPerCoach) bits += (long) seats * legs;
+        return bits;
+    }
+
+    private static Train readTrain(ByteBuffer in, String[] strings) {
+        Train train = new Train();
+        train.setTrainNo(string(strings, in.getInt()));
+        train.setTrainName(string(strings, in.getInt()));
+        int legs = Short.toUnsignedInt(in.getShort());
+        int[] seatsPerCoach = new int[Short.toUnsignedInt(in.getShort())];
+        for (int r = 0; r < seatsPerCoach.length; r++) seatsPerCoach[r] = Short.toUnsignedInt(in.getShort());
+        train.setSeatsPerCoach(seatsPerCoach);
+        int stops = Short.toUnsignedInt(in.getShort());
+        List<String> stations = new ArrayList<>(stops);
+        for (int i = 0; i < stops; i++) stations.add(string(strings, in.getInt()));
+        train.setStations(stations);
+        int timeCount = Short.toUnsignedInt(in.getShort());
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < timeCount; i++) times.put(string(strings, in.getInt()), string(strings, in.getInt()));
+        train.setStationTimes(times);
+
+        int dates = in.getInt();
+        int bytesPerDate = (int) ((occupancyBits(seatsPerCoach, legs) + 7) >>> 3);
+        Map<LocalDate, List<long[]>> occupancy = new TreeMap<>();
+        for (int d = 0; d < dates; d++) {
+            LocalDate date = LocalDate.ofEpochDay(in.getInt());
+            occupancy.put(date, new MappedOccupancy(in.slice(in.position(), bytesPerDate), seatsPerCoach, legs));
+            in.position(in.position() + bytesPerDate);
+        }
+        train.restoreOccupancy(occupancy);
+        return train;
+    }
+
+    // One date's occupancy bits, read straight from the mapped file; a coach is unpacked into words on get()
+    private static final class MappedOccupancy extends AbstractList<long[]> {
+        private final ByteBuffer bits;
+        private final int[] seatsPerCoach;
+        private final int legs;
+        private final long[] firstBit;
+
+        MappedOccupancy(ByteBuffer bits, int[] seatsPerCoach, int legs) {
+            this.bits = bits;
+            this.seatsPerCoach = seatsPerCoach;
+            this.legs = legs;
+            this.firstBit = new long[seatsPerCoach.length];
+            for (int r = 1; r < seatsPerCoach.length; r++) {
+                firstBit[r] = firstBit[r - 1] + (long) seatsPerCoach[r - 1] * legs;
+            }
+        }
+
+        @Override
+        public long[] get(int row) {
+            int seats = seatsPerCoach[row];
+            int wordsPerLeg = SeatInventory.occupancyWords(seats, 1);
+            long[] words = new long[wordsPerLeg * legs];
+            long position = firstBit[row];
+            for (int leg = 0; leg < legs; leg++) {
+                for (int seat = 0; seat < seats; seat++, position++) {
+                    if ((bits.get((int) (position >>> 3)) & (1 << (position & 7))) != 0) {
+                        words[leg * wordsPerLeg + (seat >>> 6)] |= 1L << seat;
+                    }
+                }
+            }
+            return words;
+        }
+
+        @Override
+        public int size() {
+            return seatsPerCoach.length;
+        }
+    }
+
+    // ByteArrayOutputStream without the copy on the way out
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1 << 16);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private static int intern(Map<String, Integer> strings, String value) {
+        if (value == null) return NONE;
+        return strings.computeIfAbsent(value, v -> strings.size());
+    }
+
+    private static String string(String[] strings, int index) {
+        return index == NONE ? null : strings[index];
+    }
+
+    private static int crc(ByteBuffer bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,98 @@
+package ticket.booking.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes whole files on a background thread with {@link AtomicFiles#write}, so callers hand over the bytes and
+ * go on without waiting for the disk.
+ * <p>
+ * Only the newest content of each file matters: content queued for a file that has not been written yet is
+ * replaced, and every caller waiting on the replaced content is told when the newer one lands. Pending writes
+ * are flushed when the JVM shuts down normally.
+ */
+public class WriteBehind {
+
+    private record Pending(byte[] bytes, List<CompletableFuture<Void>> waiting) {}
+
+    private final Map<Path, Pending> pending = new LinkedHashMap<>(); // guarded by this
+    private final Thread writer;
+    private boolean writing; // guarded by this
+
+    public WriteBehind(String name) {
+        this.writer = new Thread(this::writeLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, name + "-flush"));
+    }
+
+    /**
+     * Queues {@code bytes} as the new content of {@code file}. The future completes once that content (or a
+     * newer one) is on disk, or fails with the write's IOException.
+     */
+    public synchronized CompletableFuture<Void> write(Path file, byte[] bytes) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Pending previous = pending.get(file);
+        List<CompletableFuture<Void>> waiting = previous == null ? new ArrayList<>() : previous.waiting();
+        waiting.add(done);
+        pending.put(file, new Pending(bytes, waiting));
+        notifyAll();
+        return done;
+    }
+
+    /**
+     * Blocks until everything queued so far has been written.
+     */
+    public synchronized void flush() {
+        boolean interrupted = false;
+        while (!pending.isEmpty() || writing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Path file;
+            Pending next;
+            synchronized (this) {
+                while (pending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                Map.Entry<Path, Pending> first = pending.entrySet().iterator().next();
+                file = first.getKey();
+                next = first.getValue();
+                pending.remove(file);
+                writing = true;
+            }
+            IOException failure = null;
+            try {
+                AtomicFiles.write(file, next.bytes());
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Error writing " + file + ": " + e.getMessage());
+            }
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+            for (CompletableFuture<Void> done : next.waiting()) {
+                if (failure == null) done.complete(null);
+                else done.completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package ticket.booking.server;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import ticket.booking.auth.Session;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.index.ConnectionIndex;
+import ticket.booking.metrics.Metrics;
+import ticket.booking.inventory.SeatPreference;
+import ticket.booking.service.AvailabilityCache;
+import ticket.booking.service.BatchMode;
+import ticket.booking.service.BookingResult;
+import ticket.booking.service.SurgeResult;
+import ticket.booking.service.TrainService;
+import ticket.booking.service.UserBookingService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Local HTTP front end for the booking services, for driving concurrent load at them.
+ * <p>
+ * Requests are stateless: a login returns a session token, later requests send it as
+ * {@code Authorization: Bearer <token>}, and every request gets its own {@link UserBookingService}, so no user is
+ * shared between requests. Bodies are JSON; dates are ISO ({@code 2025-10-16}).
+ * <pre>
+ * POST   /users                 {name, email, phoneNumber, password}        sign up
+ * POST   /sessions              {login, password} -> {token, userId, ...}   log in
+ * DELETE /sessions                                                          log out
+ * GET    /trains?from=&amp;to=[&amp;date=]                                          search, with free seats if dated
+ * GET    /journeys?from=&amp;to=[&amp;after=&amp;maxChanges=&amp;minTransferMillis=]        fastest connection
+ * GET    /seats?trainNo=&amp;from=&amp;to=&amp;date=                                   seat matrix
+ * GET    /bookings                                                          the user's tickets
+ * GET    /bookings/{ticketId}   -> {ticket, waitlistPosition}               one ticket
+ * POST   /bookings              {trainNo, from, to, date, row, seat}        book a seat
+ * POST   /bookings              {trainNo, from, to, date, count,            book assigned seats (a list)
+ *                                window, sameRow, contiguous}
+ * POST   /bookings              {trainNo, from, to, date, waitlist: true}   any seat, else the waitlist
+ * POST   /bookings              {trainNo, from, to, date, tatkal: true}     any seat, through the surge queue
+ * POST   /bookings/batch        {mode, bookings: [{trainNo, ...}, ...]}     several at once, one result each
+ * DELETE /bookings/{ticketId}                                               cancel
+ * POST   /surges                {trainNo, date}                             open tatkal (surge mode), operators only
+ * DELETE /surges?trainNo=&amp;date=                                              close it, operators only
+ * GET    /stats                                                             cache, latency and counter metrics
+ * </pre>
+ * Usage: {@code BookingServer [port]} (default 8080). It binds to the loopback address only. Requests run on a
+ * pool of {@code -Dbooking.server.threads} threads (default 64 per core), since handlers block on bookings and
+ * logins.
+ * <p>
+ * While a train and date are in surge mode only tatkal bookings are taken for it. A tatkal booking answers 409
+ * when the stretch is sold out and 503 with {@code Retry-After} when the request was shed. A sign-up is shed
+ * the same way when the auth pool, which also hashes new passwords, is saturated. Only operators, the
+ * users whose emails are listed in {@code -Dbooking.operators} (comma-separated), may open or close surge mode;
+ * anyone else gets 403.
+ */
+public class BookingServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    private static final int THREADS = Integer.getInteger("booking.server.threads",
+            64 * Runtime.getRuntime().availableProcessors());
+
+    // what a shed tatkal request is told; the queue drains in well under a second
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    // emails of the users allowed to open and close surge mode, lower-cased
+    private static final Set<String> OPERATORS = Arrays.stream(System.getProperty("booking.operators", "").split(","))
+            .map(email -> email.trim().toLowerCase(Locale.ROOT))
+            .filter(email -> !email.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final TrainService trainService;
+
+    record SignUpRequest(String name, String email, String phoneNumber, String password) {}
+
+    record LoginRequest(String login, String password) {}
+
+    // row and seat pick a seat; without them `count` seats (default 1) are assigned honouring the preferences
+    record BookingRequest(String trainNo, String from, String to, String date, Integer row, Integer seat,
+                          Integer count, boolean window, boolean sameRow, boolean contiguous, boolean waitlist,
+                          boolean tatkal) {}
+
+    record SurgeRequest(String trainNo, String date) {}
+
+    record BatchRequest(String mode, List<BookingRequest> bookings) {}
+
+    record BatchResult(boolean booked, Ticket ticket, String error) {}
+
+    // freeSeats only when the search named a date
+    record TrainSummary(String trainNo, String trainName, List<String> stations, Map<String, String> stationTimes,
+                        @JsonInclude(JsonInclude.Include.NON_NULL) Integer freeSeats) {
+        static TrainSummary of(Train train, Integer freeSeats) {
+            return new TrainSummary(train.getTrainNo(), train.getTrainName(), train.getStations(), train.getStationTimes(),
+                    freeSeats);
+        }
+    }
+
+    // one train of a journey; dates and times are ISO, the service date is the one to book the leg on
+    record JourneyLeg(String trainNo, String trainName, String from, String to, String serviceDate, String departure,
+                      String arrival) {
+        static JourneyLeg of(ConnectionIndex.Leg leg) {
+            return new JourneyLeg(leg.train().getTrainNo(), leg.train().getTrainName(), leg.from(), leg.to(),
+                    leg.serviceDate().toString(), leg.departure().toString(), leg.arrival().toString());
+        }
+    }
+
+    // a failed request: sent back as {"error": message} with this status
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+        final Integer retryAfterSeconds;
+
+        HttpError(int status, String message) {
+            this(status, message, null);
+        }
+
+        HttpError(int status, String message, Integer retryAfterSeconds) {
+            super(message);
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    public BookingServer(int port) throws IOException {
+        new UserBookingService(); // loads the store before the first request
+        this.trainService = TrainService.getInstance();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(THREADS, requestThreads());
+        server.setExecutor(executor);
+        server.createContext("/users", handler(this::users));
+        server.createContext("/sessions", handler(this::sessions));
+        server.createContext("/trains", handler(this::trains));
+        server.createContext("/journeys", handler(this::journeys));
+        server.createContext("/seats", handler(this::seats));
+        server.createContext("/bookings", handler(this::bookings));
+        server.createContext("/surges", handler(this::surges));
+        server.createContext("/stats", handler(this::stats));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        BookingServer bookingServer = new BookingServer(port);
+        bookingServer.start();
+        System.out.println("Booking server listening on http://localhost:" + bookingServer.getPort()
+                + " with " + THREADS + " request threads");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // ---------------- HANDLERS ----------------
+
+    private Object users(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "POST");
+        SignUpRequest request = readBody(exchange, SignUpRequest.class);
+        if (isBlank(request.name()) || isBlank(request.email()) || isBlank(request.phoneNumber()) || isBlank(request.password())) {
+            throw new HttpError(400, "name, email, phoneNumber and password are required");
+        }
+        User newUser = new User();
+        newUser.setName(request.name());
+        newUser.setEmail(request.email());
+        newUser.setPhoneNumber(request.phoneNumber());
+        UserBookingService service = new UserBookingService();
+        try {
+            newUser.setHashedPassword(service.hashPassword(request.password()));
+        } catch (RejectedExecutionException e) {
+            throw new HttpError(503, "Too many sign-ups right now, please try again", RETRY_AFTER_SECONDS);
+        }
+        if (!service.signUp(newUser)) {
+            throw new HttpError(409, "Email or phone already registered");
+        }
+        exchange.getResponseHeaders().set("Location", "/users/" + newUser.getUserId());
+        return Map.of("userId", newUser.getUserId());
+    }
+
+    private Object sessions(HttpExchange exchange) throws IOException, HttpError {
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                LoginRequest request = readBody(exchange, LoginRequest.class);
+                Session session = new UserBookingService().login(request.login(), request.password());
+                if (session == null) throw new HttpError(401, "Invalid credentials or too many logins");
+                return Map.of("token", session.token(), "userId", session.userId(),
+                        "expiresAt", session.expiresAt().toString());
+            }
+            case "DELETE" -> {
+                UserBookingService service = new UserBookingService();
+                authenticate(exchange, service);
+                service.logout(bearerToken(exchange));
+                return null;
+            }
+            default -> throw new HttpError(405, "Use POST or DELETE");
+        }
+    }
+
+    private Object trains(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = query(exchange);
+        UserBookingService service = new UserBookingService();
+        String from = required(query, "from");
+        String to = required(query, "to");
+        if (query.get("date") == null) {
+            List<Train> found = service.getTrains(from, to);
+            List<TrainSummary> summaries = new ArrayList<>(found.size());
+            for (Train train : found) summaries.add(TrainSummary.of(train, null));
+            return summaries;
+        }
+        List<AvailabilityCache.TrainAvailability> found = service.searchAvailability(from, to, date(query.get("date")));
+        if (found == null) throw new HttpError(400, "Date is outside the booking window");
+        List<TrainSummary> summaries = new ArrayList<>(found.size());
+        for (AvailabilityCache.TrainAvailability available : found) {
+            summaries.add(TrainSummary.of(available.train(), available.freeSeats()));
+        }
+        return summaries;
+    }
+
+    private Object stats(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "GET");
+        return Map.of("availabilityCache", new UserBookingService().getAvailabilityCacheStats(),
+                "latencyMillis", Metrics.latencies(), "counters", Metrics.counters(),
+                "seatContentionRate", Metrics.seatContentionRate());
+    }
+
+    private Object journeys(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = query(exchange);
+        LocalDateTime departAfter;
+        try {
+            departAfter = query.get("after") == null ? LocalDateTime.now() : LocalDateTime.parse(query.get("after"));
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "after must be yyyy-MM-ddTHH:mm");
+        }
+        int maxChanges = intParam(query, "maxChanges", ConnectionIndex.MAX_CHANGES);
+        long minTransferMillis = intParam(query, "minTransferMillis", (int) UserBookingService.MIN_TRANSFER_MILLIS);
+        ConnectionIndex.Journey journey = new UserBookingService().planJourney(required(query, "from"),
+                required(query, "to"), departAfter, maxChanges, minTransferMillis);
+        if (journey == null) throw new HttpError(404, "No journey found");
+        List<JourneyLeg> legs = new ArrayList<>(journey.legs().size());
+        for (ConnectionIndex.Leg leg : journey.legs()) legs.add(JourneyLeg.of(leg));
+        return Map.of("departure", journey.departure().toString(), "arrival", journey.arrival().toString(),
+                "changes", journey.changes(), "legs", legs);
+    }
+
+    private Object seats(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = query(exchange);
+        UserBookingService service = new UserBookingService();
+        Train train = train(required(query, "trainNo"));
+        List<List<Integer>> seats = service.getSeatAvailability(train, required(query, "from"), required(query, "to"),
+                date(required(query, "date")));
+        if (seats == null) throw new HttpError(400, "Train does not run that stretch on that date");
+        return seats;
+    }
+
+    private Object bookings(HttpExchange exchange) throws IOException, HttpError {
+        UserBookingService service = new UserBookingService();
+        User user = authenticate(exchange, service);
+        String ticketId = pathTail(exchange, "/bookings");
+        switch (exchange.getRequestMethod()) {
+            case "GET" -> {
+                if (ticketId != null) {
+                    Ticket ticket = findTicket(user, ticketId);
+                    if (ticket == null) throw new HttpError(404, "Ticket not found");
+                    return Map.of("ticket", ticket, "waitlistPosition", service.getWaitlistPosition(ticketId));
+                }
+                synchronized (user) {
+                    return new ArrayList<>(user.getTicketsBooked());
+                }
+            }
+            case "POST" -> {
+                if ("batch".equals(ticketId)) return batch(exchange, service, user);
+                BookingRequest request = readBody(exchange, BookingRequest.class);
+                Train train = train(request.trainNo());
+                if (isBlank(request.from()) || isBlank(request.to())) throw new HttpError(400, "from and to are required");
+                if (request.tatkal()) {
+                    SurgeResult result = service.bookTatkal(train, request.from(), request.to(), date(request.date()), user);
+                    switch (result.status()) {
+                        case SOLD_OUT -> throw new HttpError(409, result.message());
+                        case RETRY_LATER -> throw new HttpError(503, result.message(), RETRY_AFTER_SECONDS);
+                        case INVALID -> throw new HttpError(400, result.message());
+                        default -> {
+                        }
+                    }
+                    exchange.getResponseHeaders().set("Location", "/bookings/" + result.ticket().getTicketId());
+                    return result.ticket();
+                }
+                if (request.waitlist()) {
+                    Ticket ticket = service.bookOrWaitlist(train, request.from(), request.to(), date(request.date()), user);
+                    if (ticket == null) throw new HttpError(409, "Train and waitlist are full");
+                    exchange.getResponseHeaders().set("Location", "/bookings/" + ticket.getTicketId());
+                    return ticket;
+                }
+                if (request.row() == null || request.seat() == null) {
+                    int count = request.count() == null ? 1 : request.count();
+                    if (count < 1) throw new HttpError(400, "count must be positive");
+                    int seats = Arrays.stream(train.getSeatsPerCoach()).sum();
+                    if (count > seats) throw new HttpError(400, "count must not exceed the train's " + seats + " seats");
+                    List<Ticket> tickets = service.autoBook(train, request.from(), request.to(), date(request.date()), count,
+                            new SeatPreference(request.window(), request.sameRow(), request.contiguous()), user);
+                    if (tickets.isEmpty()) throw new HttpError(409, "Not enough seats available");
+                    exchange.getResponseHeaders().set("Location", "/bookings/" + tickets.get(0).getTicketId());
+                    return tickets;
+                }
+                Ticket ticket = service.bookTrainSeat(train, request.from(), request.to(), request.row(), request.seat(),
+                        date(request.date()), user);
+                if (ticket == null) throw new HttpError(409, "Seat not available");
+                exchange.getResponseHeaders().set("Location", "/bookings/" + ticket.getTicketId());
+                return ticket;
+            }
+            case "DELETE" -> {
+                if (ticketId == null) throw new HttpError(400, "DELETE /bookings/{ticketId}");
+                if (!service.cancelBooking(ticketId)) throw new HttpError(404, "Ticket not found");
+                return null;
+            }
+            default -> throw new HttpError(405, "Use GET, POST or DELETE");
+        }
+    }
+
+    private Object surges(HttpExchange exchange) throws IOException, HttpError {
+        UserBookingService service = new UserBookingService();
+        User user = authenticate(exchange, service);
+        if (user.getEmail() == null || !OPERATORS.contains(user.getEmail().toLowerCase(Locale.ROOT))) {
+            throw new HttpError(403, "Only operators can open or close surge mode");
+        }
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                SurgeRequest request = readBody(exchange, SurgeRequest.class);
+                Train train = train(request.trainNo());
+                LocalDate travelDate = date(request.date());
+                if (!service.openSurge(train, travelDate)) throw new HttpError(400, "Date is outside the booking window");
+                return Map.of("trainNo", train.getTrainNo(), "date", travelDate.toString(), "open", true);
+            }
+            case "DELETE" -> {
+                Map<String, String> query = query(exchange);
+                service.closeSurge(train(required(query, "trainNo")), date(required(query, "date")));
+                return null;
+            }
+            default -> throw new HttpError(405, "Use POST or DELETE");
+        }
+    }
+
+    private Object batch(HttpExchange exchange, UserBookingService service, User user) throws HttpError {
+        BatchRequest request = readBody(exchange, BatchRequest.class);
+        if (request.bookings() == null || request.bookings().isEmpty()) throw new HttpError(400, "bookings are required");
+        BatchMode mode;
+        try {
+            mode = request.mode() == null ? BatchMode.ALL_OR_NOTHING : BatchMode.valueOf(request.mode());
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "mode must be ALL_OR_NOTHING or BEST_EFFORT");
+        }
+        List<ticket.booking.service.BookingRequest> requests = new ArrayList<>(request.bookings().size());
+        for (BookingRequest booking : request.bookings()) {
+            Train train = trainService.getTrain(booking.trainNo());
+            if (train == null) throw new HttpError(404, "Unknown train " + booking.trainNo());
+            int row = booking.row() == null ? -1 : booking.row();
+            int seat = booking.seat() == null ? -1 : booking.seat();
+            requests.add(new ticket.booking.service.BookingRequest(train, booking.from(), booking.to(),
+                    date(booking.date()), row, seat));
+        }
+        List<BatchResult> results = new ArrayList<>(requests.size());
+        for (BookingResult result : service.bookBatch(requests, mode, user)) {
+            results.add(new BatchResult(result.isBooked(), result.ticket(), result.error()));
+        }
+        return results;
+    }
+
+    private static Ticket findTicket(User user, String ticketId) {
+        synchronized (user) {
+            for (Ticket ticket : user.getTicketsBooked()) {
+                if (ticketId.equals(ticket.getTicketId())) return ticket;
+            }
+        }
+        return null;
+    }
+
+    // ---------------- PLUMBING ----------------
+
+    private interface Endpoint {
+        Object handle(HttpExchange exchange) throws IOException, HttpError;
+    }
+
+    // Runs the endpoint and writes its result as JSON: 200 with a body, 204 for null, 201 if a Location was set.
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            try (exchange) {
+                int status;
+                Object body;
+                try {
+                    body = endpoint.handle(exchange);
+                    status = body == null ? 204 : exchange.getResponseHeaders().containsKey("Location") ? 201 : 200;
+                } catch (HttpError e) {
+                    status = e.status;
+                    if (e.retryAfterSeconds != null) {
+                        exchange.getResponseHeaders().set("Retry-After", e.retryAfterSeconds.toString());
+                    }
+                    body = Map.of("error", e.getMessage());
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+                    status = 500;
+                    body = Map.of("error", "Internal error");
+                }
+                if (body == null) {
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                byte[] json = objectMapper.writeValueAsBytes(body);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, json.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(json);
+                }
+            }
+        };
+    }
+
+    private User authenticate(HttpExchange exchange, UserBookingService service) throws HttpError {
+        User user = service.resumeSession(bearerToken(exchange));
+        if (user == null) throw new HttpError(401, "Missing or expired session");
+        return user;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+        return header.substring(7).trim();
+    }
+
+    private <T> T readBody(HttpExchange exchange, Class<T> type) throws HttpError {
+        try (InputStream in = exchange.getRequestBody()) {
+            T body = objectMapper.readValue(in, type);
+            if (body == null) throw new HttpError(400, "Request body is required");
+            return body;
+        } catch (IOException e) {
+            throw new HttpError(400, "Malformed JSON body");
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws HttpError {
+        if (!method.equals(exchange.getRequestMethod())) throw new HttpError(405, "Use " + method);
+    }
+
+    private Train train(String trainNo) throws HttpError {
+        if (isBlank(trainNo)) throw new HttpError(400, "trainNo is required");
+        Train train = trainService.getTrain(trainNo);
+        if (train == null) throw new HttpError(404, "Unknown train " + trainNo);
+        return train;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int fallback) throws HttpError {
+        String value = query.get(name);
+        if (value == null) return fallback;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, name + " must be a number");
+        }
+    }
+
+    private static LocalDate date(String value) throws HttpError {
+        if (isBlank(value)) throw new HttpError(400, "date is required");
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "date must be yyyy-MM-dd");
+        }
+    }
+
+    // "/bookings/abc" -> "abc", "/bookings" -> null
+    private static String pathTail(HttpExchange exchange, String context) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.length() <= context.length() + 1) return null;
+        return URLDecoder.decode(path.substring(context.length() + 1), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> query, String name) throws HttpError {
+        String value = query.get(name);
+        if (isBlank(value)) throw new HttpError(400, name + " is required");
+        return value;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static ThreadFactory requestThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, "http-" + count.incrementAndGet());
+    }
+}
@@ -0,0 +1,198 @@
+package ticket.booking.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Drives a running {@link BookingServer} with concurrent simulated users and prints throughput and latency
+ * percentiles per operation.
+ * <p>
+ * Each worker signs up its own user, logs in once, then loops until the time is up: search {@code from} to
+ * {@code to} on one of the next three days, fetch the seat matrix of one of the trains found, book a random seat
+ * and cancel one booking in three. Users are named after the start time, so repeated runs against the same data do not collide.
+ * <p>
+ * Usage: {@code LoadGenerator <from> <to> [workers] [seconds] [baseUrl]} (defaults: 32 workers, 30 seconds,
+ * http://localhost:8080).
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "load-password";
+    private static final String[] OPERATIONS = {"search", "seats", "book", "cancel"};
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final String from;
+    private final String to;
+
+    // latencies in microseconds, plus error count, for one operation of one worker
+    private static final class Samples {
+        long[] micros = new long[1024];
+        int size;
+        int errors;
+
+        void add(long nanos) {
+            if (size == micros.length) micros = Arrays.copyOf(micros, size * 2);
+            micros[size++] = nanos / 1_000;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                if (size == micros.length) micros = Arrays.copyOf(micros, size * 2);
+                micros[size++] = other.micros[i];
+            }
+            errors += other.errors;
+        }
+    }
+
+    public LoadGenerator(String baseUrl, String from, String to, int workers) {
+        this.baseUrl = baseUrl;
+        this.from = from;
+        this.to = to;
+        this.client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(Math.max(2, workers / 4)))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator <from> <to> [workers] [seconds] [baseUrl]");
+            return;
+        }
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        String baseUrl = args.length > 4 ? args[4] : "http://localhost:" + BookingServer.DEFAULT_PORT;
+        new LoadGenerator(baseUrl, args[0], args[1], workers).run(workers, Duration.ofSeconds(seconds));
+        System.exit(0); // the HTTP client's threads would keep the JVM alive
+    }
+
+    public void run(int workers, Duration duration) throws InterruptedException {
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Map<String, Samples>>> results = new ArrayList<>();
+        long deadline = System.nanoTime() + duration.toNanos();
+        for (int w = 0; w < workers; w++) {
+            int id = w;
+            results.add(pool.submit(() -> work(runId + "-" + id, deadline)));
+        }
+        pool.shutdown();
+
+        Map<String, Samples> total = new TreeMap<>();
+        for (Future<Map<String, Samples>> result : results) {
+            try {
+                result.get().forEach((op, samples) -> total.computeIfAbsent(op, k -> new Samples()).addAll(samples));
+            } catch (ExecutionException e) {
+                System.err.println("Worker failed: " + e.getCause());
+            }
+        }
+        report(total, duration);
+    }
+
+    private Map<String, Samples> work(String name, long deadline) throws IOException, InterruptedException {
+        Map<String, Samples> samples = new TreeMap<>();
+        for (String op : OPERATIONS) samples.put(op, new Samples());
+        String email = "load-" + name + "@load.example";
+        send("POST", "/users", Map.of("name", "Load " + name, "email", email,
+                "phoneNumber", "load-" + name, "password", PASSWORD), null);
+        JsonNode session = send("POST", "/sessions", Map.of("login", email, "password", PASSWORD), null);
+        if (session == null) throw new IOException("Could not log in as " + email);
+        String token = session.get("token").asText();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String query = "from=" + encode(from) + "&to=" + encode(to);
+        while (System.nanoTime() < deadline) {
+            String date = LocalDate.now().plusDays(random.nextInt(3)).toString();
+            JsonNode trains = timed(samples.get("search"), "GET", "/trains?" + query + "&date=" + date, null, token);
+            if (trains == null || trains.isEmpty()) continue;
+            String trainNo = trains.get(random.nextInt(trains.size())).get("trainNo").asText();
+
+            JsonNode seats = timed(samples.get("seats"), "GET",
+                    "/seats?trainNo=" + encode(trainNo) + "&" + query + "&date=" + date, null, token);
+            if (seats == null || seats.isEmpty()) continue;
+            int row = random.nextInt(seats.size());
+            int seat = random.nextInt(seats.get(row).size());
+
+            JsonNode ticket = timed(samples.get("book"), "POST", "/bookings", Map.of("trainNo", trainNo,
+                    "from", from, "to", to, "date", date, "row", row, "seat", seat), token);
+            if (ticket != null && random.nextInt(3) == 0) {
+                timed(samples.get("cancel"), "DELETE", "/bookings/" + ticket.get("ticketId").asText(), null, token);
+            }
+        }
+        return samples;
+    }
+
+    // A rejected request (4xx, e.g. a seat someone else just took) still counts as served; only 5xx and I/O
+    // failures are errors.
+    private JsonNode timed(Samples samples, String method, String path, Object body, String token) {
+        long start = System.nanoTime();
+        try {
+            JsonNode response = send(method, path, body, token);
+            samples.add(System.nanoTime() - start);
+            return response;
+        } catch (IOException e) {
+            samples.errors++;
+            System.err.println("Request failed: " + method + " " + path + ": " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Returns the response body, or null for 4xx and empty responses.
+    private JsonNode send(String method, String path, Object body, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30));
+        if (token != null) request.header("Authorization", "Bearer " + token);
+        if (body != null) {
+            request.header("Content-Type", "application/json");
+            request.method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+        } else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 500) throw new IOException("HTTP " + response.statusCode() + " for " + path);
+        if (response.statusCode() >= 400 || response.body().length == 0) return null;
+        return objectMapper.readTree(response.body());
+    }
+
+    private static void report(Map<String, Samples> total, Duration duration) {
+        double seconds = duration.toMillis() / 1000.0;
+        System.out.printf("%-8s %10s %10s %8s %8s %8s %8s %8s%n",
+                "op", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors");
+        for (String op : OPERATIONS) {
+            Samples samples = total.get(op);
+            if (samples == null) continue;
+            long[] sorted = Arrays.copyOf(samples.micros, samples.size);
+            Arrays.sort(sorted);
+            System.out.printf("%-8s %10d %10.1f %8.2f %8.2f %8.2f %8.2f %8d%n", op, sorted.length, sorted.length / seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1000.0, samples.errors);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0.0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1000.0;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Train;
+import ticket.booking.index.StationIndex;
+import ticket.booking.inventory.SeatInventory;
+import ticket.booking.inventory.TrainInventory;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recently searched routes with the free-seat count of every train on them, bounded to the least recently used
+ * {@code -Dbooking.availabilityCache.size} routes (default 10,000).
+ * <p>
+ * Nothing expires by time. An entry remembers the timetable version it was built against and, per train, the
+ * seat inventory it counted and that inventory's version; a booking or cancellation on one of those trains
+ * bumps the version, and a timetable change bumps the other. A lookup that finds any of them moved drops the
+ * entry and recounts, so a hit is always exact and routes whose trains are not being booked stay cached.
+ */
+public class AvailabilityCache {
+
+    public static final int DEFAULT_SIZE = Integer.getInteger("booking.availabilityCache.size", 10_000);
+
+    public record TrainAvailability(Train train, int freeSeats) {}
+
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size) {}
+
+    private record Key(String source, String destination, LocalDate date) {}
+
+    // One counted train: the inventory it was counted on and that inventory's version before counting.
+    private record Counted(TrainInventory trainInventory, SeatInventory seats, long version) {}
+
+    private record Entry(long timetableVersion, List<TrainAvailability> trains, List<Counted> counted) {}
+
+    private final TrainService trainService;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public AvailabilityCache(TrainService trainService) {
+        this(trainService, DEFAULT_SIZE);
+    }
+
+    public AvailabilityCache(TrainService trainService, int capacity) {
+        this.trainService = trainService;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= capacity) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Trains from {@code source} to {@code destination} with their free seats on {@code date}, ordered by train
+     * number, or none if either station is missing. The date must be inside the booking window.
+     */
+    public List<TrainAvailability> search(String source, String destination, LocalDate date) {
+        if (source == null || destination == null) return Collections.emptyList();
+        Key key = new Key(StationIndex.normalize(source), StationIndex.normalize(destination), date);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            if (isCurrent(entry)) {
+                hits.incrementAndGet();
+                return entry.trains();
+            }
+            invalidations.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        // counted outside the lock: two threads missing the same route both count, and the later one wins
+        Entry fresh = count(source, destination, date);
+        synchronized (entries) {
+            entries.put(key, fresh);
+        }
+        return fresh.trains();
+    }
+
+    public Stats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.get(), misses.get(), evictions.get(), invalidations.get(), size);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private boolean isCurrent(Entry entry) {
+        if (entry.timetableVersion() != trainService.getTimetableVersion()) return false;
+        for (int i = 0; i < entry.counted().size(); i++) {
+            Counted counted = entry.counted().get(i);
+            if (entry.trains().get(i).train().getInventory() != counted.trainInventory()) return false;
+            if (counted.seats().getVersion() != counted.version()) return false;
+        }
+        return true;
+    }
+
+    private Entry count(String source, String destination, LocalDate date) {
+        long timetableVersion = trainService.getTimetableVersion();
+        List<Train> found = trainService.searchTrains(source, destination);
+        List<TrainAvailability> trains = new ArrayList<>(found.size());
+        List<Counted> counted = new ArrayList<>(found.size());
+        for (Train train : found) {
+            TrainInventory trainInventory = train.getInventory();
+            SeatInventory seats = trainInventory.forDate(date);
+            long version = seats.getVersion();
+            int free = seats.countFree(train.getStopIndex(source), train.getStopIndex(destination));
+            trains.add(new TrainAvailability(train, free));
+            counted.add(new Counted(trainInventory, seats, version));
+        }
+        return new Entry(timetableVersion, Collections.unmodifiableList(trains), counted);
+    }
+}
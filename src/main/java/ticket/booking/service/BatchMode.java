@@ -0,0 +1,11 @@
+package ticket.booking.service;
+
+/**
+ * How {@link UserBookingService#bookBatch} treats a request that cannot be booked.
+ */
+public enum BatchMode {
+    /** Nothing is booked unless every request can be. */
+    ALL_OR_NOTHING,
+    /** Every request that can be booked is; the others are reported as failed. */
+    BEST_EFFORT
+}
@@ -0,0 +1,634 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.index.StationIndex;
+import ticket.booking.index.TicketIndex;
+import ticket.booking.inventory.SeatInventory;
+import ticket.booking.inventory.SeatPreference;
+import ticket.booking.inventory.TrainInventory;
+import ticket.booking.inventory.Waitlist;
+import ticket.booking.persistence.BookingEvent;
+import ticket.booking.persistence.DataFiles;
+import ticket.booking.persistence.EventLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Books and cancels seats on shards partitioned by train number. Each shard is a single writer thread with its
+ * own event log ({@code bookings-<n>.log}); every booking and cancellation for a train runs on that train's
+ * shard, so shards never contend with each other and their logs are fsynced in parallel.
+ * <p>
+ * A shard thread claims the seat, indexes the ticket and queues the event, then moves on; the returned future
+ * completes once the event is durable. Users' ticket lists are not touched on the shard: they are updated from
+ * the durable events by a separate projector thread, in event order, shortly after the future completes.
+ * <p>
+ * The shard count is {@code -Dbooking.shards} (default: one per core). Logs left by a run with more shards
+ * are still replayed and compacted; they just receive no new events.
+ */
+class BookingEngine {
+
+    private static final int DEFAULT_SHARDS = Integer.getInteger("booking.shards", Runtime.getRuntime().availableProcessors());
+    private static final Pattern SHARD_LOG = Pattern.compile("bookings-(\\d+)\\.log(\\.old)?");
+
+    private final BookingStore store;
+    private final Shard[] shards;
+    private final int routed; // new events go to the first `routed` shards
+    private final ExecutorService projector = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ticket-projector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Shard(ExecutorService loop, EventLog log) {}
+
+    /**
+     * A ticket and the seat it takes: its own row and seat, or any free seat if the ticket has none yet.
+     */
+    record Claim(Ticket ticket, SeatInventory inventory, int fromStop, int toStop) {
+        boolean claim() {
+            if (ticket.getRow() >= 0 && ticket.getSeat() >= 0) {
+                return inventory.tryBook(ticket.getRow(), ticket.getSeat(), fromStop, toStop);
+            }
+            List<SeatInventory.Seat> seats = inventory.allocate(1, fromStop, toStop, SeatPreference.NONE);
+            if (seats.isEmpty()) return false;
+            ticket.setRow(seats.get(0).row());
+            ticket.setSeat(seats.get(0).seat());
+            return true;
+        }
+
+        void release() {
+            inventory.release(ticket.getRow(), ticket.getSeat(), fromStop, toStop);
+        }
+    }
+
+    BookingEngine(BookingStore store) throws IOException {
+        this(store, DEFAULT_SHARDS);
+    }
+
+    BookingEngine(BookingStore store, int shardCount) throws IOException {
+        this.store = store;
+        this.routed = Math.max(1, shardCount);
+        int total = Math.max(routed, existingShards());
+        this.shards = new Shard[total];
+        for (int i = 0; i < total; i++) {
+            int id = i;
+            ExecutorService loop = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "booking-shard-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+            shards[i] = new Shard(loop, new EventLog(DataFiles.bookingLog(i)));
+        }
+    }
+
+    /**
+     * Replays every shard log into {@code handler}. Events of one ticket only span shards if the shard count
+     * changed, so the handler must not depend on the order of events across shards.
+     */
+    void replay(Consumer<BookingEvent> handler) throws IOException {
+        for (Shard shard : shards) shard.log().replay(handler);
+    }
+
+    /**
+     * Claims the seat for {@code ticket} on its train's shard and logs it. Completes with false if the seat is
+     * taken, true once the booking is durable, or exceptionally if it could not be logged (nothing is kept).
+     */
+    CompletableFuture<Boolean> book(UUID owner, Ticket ticket, SeatInventory inventory, int fromStop, int toStop) {
+        Shard shard = shardFor(ticket.getTrainNo());
+        return onShard(shard, () -> {
+            store.snapshotLock.readLock().lock();
+            try {
+                Claim claim = current(new Claim(ticket, inventory, fromStop, toStop));
+                if (claim == null || !claim.inventory().isValidSeat(ticket.getRow(), ticket.getSeat()) || !claim.claim()) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                return record(shard, owner, List.of(claim)).thenApply(done -> true);
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Lets the inventory choose and claim one seat per ticket on the tickets' train shard, then logs them. All
+     * tickets must be for the same train, date and stretch. Completes with the tickets, their row and seat
+     * filled in, once every booking is durable; with an empty list if that many suitable seats are not free;
+     * or exceptionally if the bookings could not be logged (nothing is kept).
+     */
+    CompletableFuture<List<Ticket>> allocate(UUID owner, List<Ticket> tickets, SeatPreference preference,
+                                             SeatInventory inventory, int fromStop, int toStop) {
+        Shard shard = shardFor(tickets.get(0).getTrainNo());
+        return onShard(shard, () -> {
+            store.snapshotLock.readLock().lock();
+            try {
+                Claim where = current(new Claim(tickets.get(0), inventory, fromStop, toStop));
+                if (where == null) return CompletableFuture.completedFuture(List.<Ticket>of());
+                List<SeatInventory.Seat> seats = where.inventory().allocate(tickets.size(), where.fromStop(),
+                        where.toStop(), preference);
+                if (seats.isEmpty()) return CompletableFuture.completedFuture(List.<Ticket>of());
+                for (int i = 0; i < tickets.size(); i++) {
+                    tickets.get(i).setRow(seats.get(i).row());
+                    tickets.get(i).setSeat(seats.get(i).seat());
+                }
+                return record(shard, owner, claims(tickets, where.inventory(), where.fromStop(), where.toStop()))
+                        .thenApply(done -> tickets);
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Books a batch for one user in two steps. First every shard involved claims its part of the seats, without
+     * logging; with {@code allOrNothing} a single seat that cannot be claimed releases the whole batch there.
+     * Then each shard logs its part in one write. Completes with one flag per claim (true if booked) once the
+     * bookings are durable. A shard that cannot log its part drops it; with {@code allOrNothing} the other
+     * parts are then cancelled too and the future fails.
+     * <p>
+     * Callers hold {@link BookingStore#batchLock}'s read lock throughout, so no snapshot is cut between the
+     * steps.
+     */
+    CompletableFuture<boolean[]> bookBatch(UUID owner, List<Claim> requested, boolean allOrNothing) {
+        List<Claim> claims = new ArrayList<>(requested); // re-resolved on the shards if their seats were re-laid out
+        boolean[] booked = new boolean[claims.size()];
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < claims.size(); i++) {
+            byShard.computeIfAbsent(shardOf(claims.get(i).ticket().getTrainNo()), k -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Void>> claiming = new ArrayList<>(byShard.size());
+        byShard.forEach((shardId, part) -> claiming.add(CompletableFuture.runAsync(() -> {
+            for (int i : part) {
+                Claim claim = current(claims.get(i));
+                if (claim != null) claims.set(i, claim);
+                booked[i] = claim != null && claim.claim();
+                if (!booked[i] && allOrNothing) return;
+            }
+        }, shards[shardId].loop())));
+
+        return allOf(claiming).thenCompose(claimed -> {
+            boolean complete = true;
+            for (boolean b : booked) complete &= b;
+            if (allOrNothing && !complete) {
+                return releaseBatch(byShard, claims, booked).thenApply(released -> new boolean[claims.size()]);
+            }
+            Map<Integer, CompletableFuture<Void>> logging = new TreeMap<>();
+            byShard.forEach((shardId, part) -> {
+                List<Claim> held = new ArrayList<>(part.size());
+                for (int i : part) if (booked[i]) held.add(claims.get(i));
+                if (held.isEmpty()) return;
+                Shard shard = shards[shardId];
+                logging.put(shardId, onShard(shard, () -> {
+                    store.snapshotLock.readLock().lock();
+                    try {
+                        return record(shard, owner, held);
+                    } finally {
+                        store.snapshotLock.readLock().unlock();
+                    }
+                }));
+            });
+            return allOf(new ArrayList<>(logging.values())).handle((logged, error) -> {
+                if (error == null) return CompletableFuture.completedFuture(booked);
+                // the failed parts were rolled back by record(); what is left depends on the mode
+                List<CompletableFuture<Boolean>> undo = new ArrayList<>();
+                logging.forEach((shardId, part) -> {
+                    boolean failed = part.isCompletedExceptionally();
+                    for (int i : byShard.get(shardId)) {
+                        if (!booked[i]) continue;
+                        if (failed) {
+                            booked[i] = false;
+                        } else if (allOrNothing) {
+                            TicketIndex.Entry entry = store.ticketIndex.get(claims.get(i).ticket().getTicketId());
+                            if (entry != null) undo.add(cancel(entry));
+                        }
+                    }
+                });
+                if (!allOrNothing) return CompletableFuture.completedFuture(booked);
+                return allOf(undo).handle((undone, ignored) -> booked)
+                        .thenCompose(result -> CompletableFuture.<boolean[]>failedFuture(error));
+            }).thenCompose(result -> result);
+        });
+    }
+
+    /**
+     * Queues a surge-mode booking for any free seat on {@code queue}'s train and date. The result completes
+     * when the request is shed, found sold out, or its booking is durable.
+     */
+    CompletableFuture<SurgeResult> bookInSurge(UUID owner, Ticket ticket, SurgeQueue queue, int fromStop, int toStop) {
+        CompletableFuture<SurgeResult> result = new CompletableFuture<>();
+        if (queue.admit(new SurgeQueue.Request(owner, ticket, fromStop, toStop, result))) {
+            shardFor(ticket.getTrainNo()).loop().execute(() -> drainSurge(queue));
+        }
+        return result;
+    }
+
+    // One batch per shard step: other trains on the shard get a turn between batches. The claims of a batch are
+    // logged in one write, whoever they belong to.
+    private void drainSurge(SurgeQueue queue) {
+        List<SurgeQueue.Request> batch = queue.nextBatch();
+        if (batch.isEmpty()) return;
+        Shard shard = shardFor(batch.get(0).ticket().getTrainNo());
+        store.snapshotLock.readLock().lock();
+        try {
+            List<UUID> owners = new ArrayList<>(batch.size());
+            List<Claim> claims = new ArrayList<>(batch.size());
+            List<SurgeQueue.Request> seated = new ArrayList<>(batch.size());
+            for (SurgeQueue.Request request : batch) {
+                Claim claim = new Claim(request.ticket(), queue.inventory(), request.fromStop(), request.toStop());
+                if (!claim.claim()) {
+                    request.result().complete(SurgeResult.soldOut());
+                    continue;
+                }
+                owners.add(request.owner());
+                claims.add(claim);
+                seated.add(request);
+            }
+            if (!claims.isEmpty()) {
+                record(shard, owners, claims).whenComplete((logged, error) -> {
+                    for (SurgeQueue.Request request : seated) {
+                        request.result().complete(error == null ? SurgeResult.booked(request.ticket())
+                                : SurgeResult.retryLater("Booking could not be saved, retry later"));
+                    }
+                });
+            }
+        } finally {
+            store.snapshotLock.readLock().unlock();
+        }
+        shard.loop().execute(() -> drainSurge(queue));
+    }
+
+    // Gives back the seats an aborted batch claimed, then offers them to waiting tickets as a cancellation would.
+    private CompletableFuture<Void> releaseBatch(Map<Integer, List<Integer>> byShard, List<Claim> claims, boolean[] claimed) {
+        List<CompletableFuture<Void>> releases = new ArrayList<>(byShard.size());
+        byShard.forEach((shardId, part) -> releases.add(CompletableFuture.runAsync(() -> {
+            for (int i : part) {
+                if (!claimed[i]) continue;
+                Claim claim = claims.get(i);
+                claim.release();
+                Waitlist waitlist = store.waitlistOf(claim.ticket());
+                if (waitlist != null) logPromotions(shards[shardId], promoteWaiting(waitlist, claim.inventory()));
+            }
+        }, shards[shardId].loop())));
+        return allOf(releases);
+    }
+
+    private static <T> CompletableFuture<Void> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Books any free seat on the ticket's stretch, or puts the ticket on its date's waitlist if none is free.
+     * Completes with the ticket, its seat or waitlist number filled in, once it is durable; with null if the
+     * waitlist is full; or exceptionally if it could not be logged (nothing is kept).
+     */
+    CompletableFuture<Ticket> bookOrWaitlist(UUID owner, Ticket ticket, SeatInventory inventory, Waitlist waitlist,
+                                             int fromStop, int toStop) {
+        Shard shard = shardFor(ticket.getTrainNo());
+        return onShard(shard, () -> {
+            store.snapshotLock.readLock().lock();
+            try {
+                Claim where = current(new Claim(ticket, inventory, fromStop, toStop));
+                if (where == null) return CompletableFuture.completedFuture(null);
+                Waitlist queue = where.inventory() == inventory ? waitlist : store.waitlistOf(ticket);
+                List<SeatInventory.Seat> seats = where.inventory().allocate(1, where.fromStop(), where.toStop(),
+                        SeatPreference.NONE);
+                if (!seats.isEmpty()) {
+                    ticket.setRow(seats.get(0).row());
+                    ticket.setSeat(seats.get(0).seat());
+                    return record(shard, owner, List.of(where)).thenApply(done -> ticket);
+                }
+                Waitlist.Entry waiting = queue.add(ticket.getTicketId(), where.fromStop(), where.toStop());
+                if (waiting == null) return CompletableFuture.completedFuture(null);
+                ticket.setRow(-1);
+                ticket.setSeat(-1);
+                ticket.setWaitlistNo(waiting.number());
+                store.ticketIndex.add(owner, ticket);
+                return shard.log().append(BookingEvent.waitlist(owner.toString(), ticket))
+                        .thenApplyAsync(logged -> {
+                            addTicket(owner, ticket);
+                            return ticket;
+                        }, projector)
+                        .exceptionallyCompose(error -> onShard(shard, () -> {
+                            Waitlist current = store.waitlistOf(ticket); // re-laid out meanwhile, or still `queue`
+                            if (current != null) current.withdraw(ticket.getTicketId());
+                            TicketIndex.Entry entry = store.ticketIndex.get(ticket.getTicketId());
+                            if (entry != null) store.ticketIndex.remove(entry);
+                            return CompletableFuture.failedFuture(error);
+                        }));
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Cancels a ticket on its train's shard. Completes with false if it was already cancelled, true once the
+     * cancellation is durable, or exceptionally if it could not be logged (the ticket is restored, seat and
+     * all). A waitlisted ticket leaves the waitlist. A confirmed one frees its seat and waiting tickets are
+     * seated on it in the same step, before anything else can book it; their bookings are logged once the
+     * cancellation is durable and undone if it is not. Whatever they leave of the seat stays taken until then.
+     */
+    CompletableFuture<Boolean> cancel(TicketIndex.Entry entry) {
+        Ticket ticket = entry.ticket();
+        Shard shard = shardFor(ticket.getTrainNo());
+        return onShard(shard, () -> {
+            store.snapshotLock.readLock().lock();
+            try {
+                if (!store.ticketIndex.remove(entry)) return CompletableFuture.completedFuture(false);
+                Waitlist waitlist = store.waitlistOf(ticket);
+                Waitlist.Entry withdrawn = null;
+                List<Promotion> promoted = List.of();
+                Hold hold = null;
+                if (ticket.isWaitlisted()) {
+                    if (waitlist != null) withdrawn = waitlist.withdraw(ticket.getTicketId());
+                } else {
+                    BookingStore.BookedSeat seat = store.bookedSeat(ticket);
+                    if (seat != null) {
+                        seat.release();
+                        if (waitlist != null) promoted = promoteWaiting(waitlist, seat.inventory());
+                        hold = hold(ticket, seat);
+                    }
+                }
+                CompletableFuture<Void> logged = shard.log().append(BookingEvent.cancel(entry.userId(), ticket));
+                Hold held = hold;
+                List<Promotion> seated = promoted;
+                Waitlist.Entry requeue = withdrawn;
+                // on the log writer, before any later rotation completes, so no snapshot keeps these legs taken
+                CompletableFuture<Void> released = held == null ? logged : logged.thenRun(held::release);
+                released.thenRunAsync(() -> afterCancel(shard, ticket, seated), shard.loop());
+                return logged.thenApplyAsync(done -> {
+                            removeTicket(entry.owner(), ticket);
+                            return true;
+                        }, projector)
+                        .exceptionallyCompose(error -> onShard(shard, () -> {
+                            store.snapshotLock.readLock().lock();
+                            try {
+                                for (Promotion promotion : seated) unpromote(promotion);
+                                // the legs the promotions had are free again and the rest are still held
+                                BookingStore.BookedSeat seat = held == null ? null : store.bookedSeat(ticket);
+                                if (seat != null) seat.claimFree();
+                                Waitlist current = requeue == null ? null : store.waitlistOf(ticket);
+                                if (current != null) current.requeue(requeue);
+                                store.ticketIndex.add(entry.owner(), ticket);
+                            } finally {
+                                store.snapshotLock.readLock().unlock();
+                            }
+                            return CompletableFuture.failedFuture(error);
+                        }));
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+        });
+    }
+
+    // A waiting ticket seated by promoteWaiting, with the waitlist number it had.
+    private record Promotion(TicketIndex.Entry indexed, long waitlistNo) {}
+
+    // The legs of a cancelled ticket's seat that no waiting ticket took, kept taken until the cancellation is
+    // durable, so a cancellation that fails gets its seat back whole. They are kept by the stations around them
+    // and found again on the train's current seats, in case it was re-laid out meanwhile.
+    private record Hold(BookingStore store, Ticket ticket, List<String> route, List<Integer> legs) {
+        void release() {
+            Train train = store.trainService.getTrain(ticket.getTrainNo());
+            BookingStore.BookedSeat seat = store.bookedSeat(ticket);
+            if (train == null || seat == null) return;
+            for (int leg : legs) {
+                int fromStop = train.getStopIndex(route.get(leg));
+                int toStop = train.getStopIndex(route.get(leg + 1));
+                if (fromStop >= 0 && fromStop < toStop) seat.inventory().release(seat.row(), seat.seat(), fromStop, toStop);
+            }
+        }
+    }
+
+    private Hold hold(Ticket ticket, BookingStore.BookedSeat seat) {
+        List<Integer> legs = new ArrayList<>();
+        for (int leg = seat.fromStop(); leg < seat.toStop(); leg++) {
+            if (seat.inventory().tryBook(seat.row(), seat.seat(), leg, leg + 1)) legs.add(leg);
+        }
+        return new Hold(store, ticket, store.trainService.getTrain(ticket.getTrainNo()).getStations(), legs);
+    }
+
+    // Once a cancellation is durable: logs the promotions it made, then offers the legs it held back to whoever
+    // joined the waitlist meanwhile.
+    private void afterCancel(Shard shard, Ticket cancelled, List<Promotion> promoted) {
+        store.snapshotLock.readLock().lock();
+        try {
+            logPromotions(shard, promoted);
+            Waitlist waitlist = store.waitlistOf(cancelled);
+            BookingStore.BookedSeat seat = waitlist == null ? null : store.bookedSeat(cancelled);
+            if (seat != null) logPromotions(shard, promoteWaiting(waitlist, seat.inventory()));
+        } finally {
+            store.snapshotLock.readLock().unlock();
+        }
+    }
+
+    // Seats waiting tickets, in waitlist order, on whatever was just freed, in memory only; the caller logs them.
+    private List<Promotion> promoteWaiting(Waitlist waitlist, SeatInventory inventory) {
+        List<Promotion> promoted = new ArrayList<>();
+        Promotion promotion;
+        while ((promotion = waitlist.promote(waiting -> seatWaiting(waiting, inventory))) != null) {
+            promoted.add(promotion);
+        }
+        return promoted;
+    }
+
+    private Promotion seatWaiting(Waitlist.Entry waiting, SeatInventory inventory) {
+        TicketIndex.Entry indexed = store.ticketIndex.get(waiting.ticketId());
+        if (indexed == null) return null;
+        List<SeatInventory.Seat> seats = inventory.allocate(1, waiting.fromStop(), waiting.toStop(), SeatPreference.NONE);
+        if (seats.isEmpty()) return null;
+        Ticket ticket = indexed.ticket();
+        long waitlistNo = ticket.getWaitlistNo();
+        ticket.setRow(seats.get(0).row());
+        ticket.setSeat(seats.get(0).seat());
+        ticket.setWaitlistNo(0);
+        return new Promotion(indexed, waitlistNo);
+    }
+
+    // A promotion is logged as a booking of the same ticket. One that cannot be logged stays in effect until
+    // restart, when the ticket is back on the waitlist. Tickets cancelled since are skipped.
+    private void logPromotions(Shard shard, List<Promotion> promoted) {
+        for (Promotion promotion : promoted) {
+            Ticket ticket = promotion.indexed().ticket();
+            if (store.ticketIndex.get(ticket.getTicketId()) != promotion.indexed()) continue;
+            shard.log().append(BookingEvent.book(promotion.indexed().userId(), ticket)).exceptionally(error -> {
+                System.err.println("Error logging promotion of ticket " + ticket.getTicketId() + ": " + error.getMessage());
+                return null;
+            });
+        }
+    }
+
+    // Puts a promoted ticket back in line with its old number and frees the seat it was given, unless it has
+    // been cancelled since.
+    private void unpromote(Promotion promotion) {
+        Ticket ticket = promotion.indexed().ticket();
+        if (store.ticketIndex.get(ticket.getTicketId()) != promotion.indexed() || ticket.isWaitlisted()) return;
+        BookingStore.BookedSeat seat = store.bookedSeat(ticket);
+        if (seat != null) seat.release();
+        ticket.setRow(-1);
+        ticket.setSeat(-1);
+        ticket.setWaitlistNo(promotion.waitlistNo());
+        Waitlist waitlist = store.waitlistOf(ticket);
+        Train train = store.trainService.getTrain(ticket.getTrainNo());
+        if (waitlist != null && train != null) {
+            waitlist.requeue(new Waitlist.Entry(ticket.getTicketId(), train.getStopIndex(ticket.getSource()),
+                    train.getStopIndex(ticket.getDestination()), promotion.waitlistNo()));
+        }
+    }
+
+    /**
+     * Rotates every shard log. Callers hold the snapshot write lock.
+     */
+    List<CompletableFuture<Void>> rotate() {
+        List<CompletableFuture<Void>> rotations = new ArrayList<>(shards.length);
+        for (Shard shard : shards) rotations.add(shard.log().rotate());
+        return rotations;
+    }
+
+    void deleteRotated() throws IOException {
+        for (Shard shard : shards) shard.log().deleteRotated();
+    }
+
+    /**
+     * Completes once every ticket-list update queued so far has been applied.
+     */
+    CompletableFuture<Void> drainProjections() {
+        return CompletableFuture.runAsync(() -> {}, projector);
+    }
+
+    long logSize() {
+        long size = 0;
+        for (Shard shard : shards) size += shard.log().size();
+        return size;
+    }
+
+    int shardOf(String trainNo) {
+        String key = StationIndex.normalize(trainNo);
+        int hash = key == null ? 0 : key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), routed);
+    }
+
+    private Shard shardFor(String trainNo) {
+        return shards[shardOf(trainNo)];
+    }
+
+    // Runs on the shard, under the snapshot read lock, right after the claims' seats were taken: indexes the
+    // tickets and logs them in one write, chaining the projection before the lock is released so compaction
+    // never sees an event without it. If the write fails every claim is rolled back.
+    private CompletableFuture<Void> record(Shard shard, UUID owner, List<Claim> claims) {
+        return record(shard, Collections.nCopies(claims.size(), owner), claims);
+    }
+
+    // Same, with each claim's owner given separately.
+    private CompletableFuture<Void> record(Shard shard, List<UUID> owners, List<Claim> claims) {
+        List<BookingEvent> events = new ArrayList<>(claims.size());
+        for (int i = 0; i < claims.size(); i++) {
+            store.ticketIndex.add(owners.get(i), claims.get(i).ticket());
+            events.add(BookingEvent.book(owners.get(i).toString(), claims.get(i).ticket()));
+        }
+        return shard.log().appendAll(events)
+                .thenRunAsync(() -> {
+                    for (int i = 0; i < claims.size(); i++) addTicket(owners.get(i), claims.get(i).ticket());
+                }, projector)
+                .exceptionallyCompose(error -> onShard(shard, () -> {
+                    for (Claim claim : claims) {
+                        TicketIndex.Entry entry = store.ticketIndex.get(claim.ticket().getTicketId());
+                        if (entry != null) store.ticketIndex.remove(entry);
+                        Claim current = current(claim);
+                        if (current != null) current.release();
+                    }
+                    return CompletableFuture.failedFuture(error);
+                }));
+    }
+
+    // The claim against the train's current seats. Callers look the seats up before their work reaches the
+    // shard, and a hot reload may re-lay the train out in between, retiring them; the ticket's stations and date
+    // still say where it belongs. Null if they no longer resolve.
+    private Claim current(Claim claim) {
+        if (!claim.inventory().isRetired()) return claim;
+        Ticket ticket = claim.ticket();
+        Train train = store.trainService.getTrain(ticket.getTrainNo());
+        LocalDate travelDate = ticket.getTravelLocalDate();
+        if (train == null || !TrainInventory.isBookableDate(travelDate)) return null;
+        SeatInventory inventory = train.getInventory().forDate(travelDate);
+        int fromStop = train.getStopIndex(ticket.getSource());
+        int toStop = train.getStopIndex(ticket.getDestination());
+        if (!inventory.isValidJourney(fromStop, toStop)) return null;
+        if (ticket.getRow() >= 0 && ticket.getSeat() >= 0 && !inventory.isValidSeat(ticket.getRow(), ticket.getSeat())) {
+            return null;
+        }
+        return new Claim(ticket, inventory, fromStop, toStop);
+    }
+
+    /**
+     * Runs {@code work} on {@code trainNo}'s shard, between its bookings, with compaction kept out.
+     */
+    <T> CompletableFuture<T> onTrainShard(String trainNo, Supplier<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            store.snapshotLock.readLock().lock();
+            try {
+                return work.get();
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+        }, shardFor(trainNo).loop());
+    }
+
+    private static List<Claim> claims(List<Ticket> tickets, SeatInventory inventory, int fromStop, int toStop) {
+        List<Claim> claims = new ArrayList<>(tickets.size());
+        for (Ticket ticket : tickets) claims.add(new Claim(ticket, inventory, fromStop, toStop));
+        return claims;
+    }
+
+    private static <T> CompletableFuture<T> onShard(Shard shard, Supplier<CompletableFuture<T>> work) {
+        return CompletableFuture.supplyAsync(work, shard.loop()).thenCompose(result -> result);
+    }
+
+    private void addTicket(UUID ownerKey, Ticket ticket) {
+        User owner = store.userIndex.findByKey(ownerKey);
+        if (owner == null) return;
+        synchronized (owner) {
+            owner.getTicketsBooked().add(ticket);
+        }
+    }
+
+    private void removeTicket(UUID ownerKey, Ticket ticket) {
+        User owner = store.userIndex.findByKey(ownerKey);
+        if (owner == null) return;
+        synchronized (owner) {
+            owner.getTicketsBooked().remove(ticket);
+        }
+    }
+
+    // highest shard number with a log on disk, plus one
+    private static int existingShards() throws IOException {
+        Path dir = DataFiles.dataDir();
+        if (!Files.isDirectory(dir)) return 0;
+        int count = 0;
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = SHARD_LOG.matcher(file.getFileName().toString());
+                if (matcher.matches()) count = Math.max(count, Integer.parseInt(matcher.group(1)) + 1);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,20 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Train;
+
+import java.time.LocalDate;
+
+/**
+ * One booking of a {@link UserBookingService#bookBatch} call. A negative row or seat lets the allocator pick any
+ * free seat on the stretch.
+ */
+public record BookingRequest(Train train, String source, String destination, LocalDate travelDate, int row, int seat) {
+
+    public static BookingRequest anySeat(Train train, String source, String destination, LocalDate travelDate) {
+        return new BookingRequest(train, source, destination, travelDate, -1, -1);
+    }
+
+    public boolean hasSeat() {
+        return row >= 0 && seat >= 0;
+    }
+}
@@ -0,0 +1,21 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Ticket;
+
+/**
+ * Outcome of one request of a batch: the booked ticket, or why it was not booked.
+ */
+public record BookingResult(BookingRequest request, Ticket ticket, String error) {
+
+    static BookingResult booked(BookingRequest request, Ticket ticket) {
+        return new BookingResult(request, ticket, null);
+    }
+
+    static BookingResult failed(BookingRequest request, String error) {
+        return new BookingResult(request, null, error);
+    }
+
+    public boolean isBooked() {
+        return ticket != null;
+    }
+}
@@ -0,0 +1,364 @@
+package ticket.booking.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.index.StationIndex;
+import ticket.booking.index.TicketIndex;
+import ticket.booking.index.UserIndex;
+import ticket.booking.inventory.SeatInventory;
+import ticket.booking.inventory.TrainInventory;
+import ticket.booking.inventory.Waitlist;
+import ticket.booking.metrics.Metrics;
+import ticket.booking.persistence.AtomicFiles;
+import ticket.booking.persistence.BookingEvent;
+import ticket.booking.persistence.DataDirLock;
+import ticket.booking.persistence.DataFiles;
+import ticket.booking.persistence.EventLog;
+import ticket.booking.persistence.StreamingJsonLoader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The booking state shared by every {@link UserBookingService} in the process: users, ticket and user indexes,
+ * the shared {@link TrainService}, the {@link BookingEngine} shards and the event logs that persist them.
+ * Loading it twice would replay the logs into the same train inventory twice, so there is exactly one, from
+ * {@link #getInstance()}. The main log holds user events (signups, password changes); bookings and
+ * cancellations are in the shard logs.
+ */
+public class BookingStore {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    List<User> userList;
+    final UserIndex userIndex = new UserIndex();
+    final TicketIndex ticketIndex = new TicketIndex();
+    TrainService trainService;
+    EventLog eventLog;
+    BookingEngine engine;
+    AvailabilityCache availabilityCache;
+    // trains and dates in surge mode, keyed by surgeKey()
+    final Map<String, SurgeQueue> surges = new ConcurrentHashMap<>();
+    // during replay only: tickets whose cancellation was seen before their booking (they sit in different
+    // shard logs), and replayed bookings that found their seat already taken by someone else
+    private Set<String> replayCancelled;
+    private Set<String> replayUnheld;
+    // during load only: waitlisted tickets seen in users.json or the logs, queued once replay is done
+    private List<TicketIndex.Entry> loadedWaitlist;
+    // mutations share this lock while they apply and log; compaction takes it alone to cut a consistent snapshot
+    final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // batches hold this while their seats are claimed but not yet logged; compaction waits for them first. It
+    // is never taken on a shard thread, so a compaction waiting for it cannot block a batch's shard work.
+    final ReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private final Path usersPath = DataFiles.users();
+    private static final long COMPACT_THRESHOLD_BYTES = 1 << 20;
+    private static final long COMPACT_CHECK_SECONDS = 30;
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "event-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile BookingStore instance;
+
+    private BookingStore() throws IOException {
+        load();
+    }
+
+    public static BookingStore getInstance() throws IOException {
+        BookingStore current = instance;
+        if (current != null) return current;
+        synchronized (BookingStore.class) {
+            if (instance == null) instance = new BookingStore();
+            return instance;
+        }
+    }
+
+    // users.json and the trains snapshot are the snapshot; the event logs hold every change made since
+    private void load() throws IOException {
+        DataDirLock.acquire(DataFiles.dataDir());
+        Metrics.publish();
+        trainService = TrainService.getInstance(); // trains stream in on their own thread meanwhile
+        loadUserListFromFile();
+        trainService.awaitLoaded(); // replay needs every train's inventory
+        eventLog = new EventLog(DataFiles.bookingLog());
+        engine = new BookingEngine(this);
+        replayCancelled = new HashSet<>();
+        replayUnheld = new HashSet<>();
+        eventLog.replay(this::apply); // signups first; it also holds bookings written before sharding
+        engine.replay(this::apply);
+        replayCancelled = null;
+        replayUnheld = null;
+        restoreWaitlists();
+        availabilityCache = new AvailabilityCache(trainService);
+        trainService.setRelayout(this::relayout);
+        COMPACTOR.scheduleWithFixedDelay(this::compactIfNeeded, COMPACT_CHECK_SECONDS, COMPACT_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void loadUserListFromFile() throws IOException {
+        userList = Collections.synchronizedList(new ArrayList<>());
+        loadedWaitlist = new ArrayList<>();
+        // streamed user by user, so the indexes fill up without the whole file ever sitting in a list of its own
+        StreamingJsonLoader.readUsers(usersPath, u -> {
+            if (u.getTicketsBooked() == null) u.setTicketsBooked(new ArrayList<>());
+            userList.add(u);
+            userIndex.add(u);
+            for (Ticket t : u.getTicketsBooked()) {
+                TicketIndex.Entry entry = ticketIndex.add(u.getKey(), t);
+                if (t.isWaitlisted()) loadedWaitlist.add(entry);
+            }
+        });
+    }
+
+    // Queues the tickets still waitlisted after replay on their train's waitlists, in waitlist-number order.
+    private void restoreWaitlists() {
+        loadedWaitlist.sort(Comparator.comparingLong(entry -> entry.ticket().getWaitlistNo()));
+        for (TicketIndex.Entry entry : loadedWaitlist) {
+            Ticket ticket = entry.ticket();
+            if (ticketIndex.get(ticket.getTicketId()) != entry || !ticket.isWaitlisted()) continue;
+            Waitlist waitlist = waitlistOf(ticket);
+            if (waitlist == null) continue; // departed
+            Train train = trainService.getTrain(ticket.getTrainNo());
+            waitlist.restore(ticket.getTicketId(), train.getStopIndex(ticket.getSource()),
+                    train.getStopIndex(ticket.getDestination()), ticket.getWaitlistNo());
+        }
+        loadedWaitlist = null;
+    }
+
+    /**
+     * Folds the event logs into a fresh users.json/trains snapshot and starts new logs.
+     */
+    public void compact() throws IOException {
+        byte[] users;
+        byte[] trains;
+        batchLock.writeLock().lock();
+        snapshotLock.writeLock().lock();
+        try {
+            List<CompletableFuture<Void>> rotations = engine.rotate();
+            rotations.add(eventLog.rotate());
+            for (CompletableFuture<Void> rotation : rotations) await(rotation);
+            await(engine.drainProjections()); // users' ticket lists must include every rotated booking
+            long start = System.nanoTime();
+            users = objectMapper.writeValueAsBytes(userList);
+            Metrics.JSON_SAVE.recordSince(start);
+            Metrics.JSON_SAVE_BYTES.add(users.length);
+            trains = trainService.snapshot();
+        } finally {
+            snapshotLock.writeLock().unlock();
+            batchLock.writeLock().unlock();
+        }
+        AtomicFiles.write(usersPath, users);
+        trainService.saveSnapshot(trains);
+        eventLog.deleteRotated();
+        engine.deleteRotated();
+    }
+
+    private void compactIfNeeded() {
+        if (eventLog.size() + engine.logSize() < COMPACT_THRESHOLD_BYTES) return;
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("Error compacting event log: " + e.getMessage());
+        }
+    }
+
+    // Replay has to be idempotent: the rotated log segment may already be covered by the snapshot.
+    private void apply(BookingEvent event) {
+        switch (event.getType()) {
+            case SIGNUP -> {
+                if (userIndex.findById(event.getUserId()) != null || event.getUser() == null) return;
+                if (event.getUser().getTicketsBooked() == null) event.getUser().setTicketsBooked(new ArrayList<>());
+                userIndex.add(event.getUser());
+                userList.add(event.getUser());
+            }
+            case WAITLIST -> {
+                User owner = userIndex.findById(event.getUserId());
+                if (owner == null) return;
+                Ticket ticket = event.toTicket();
+                if (replayCancelled != null && replayCancelled.remove(ticket.getTicketId())) return;
+                if (ticketIndex.get(ticket.getTicketId()) != null) return; // in the snapshot, or already promoted
+                owner.getTicketsBooked().add(ticket);
+                TicketIndex.Entry entry = ticketIndex.add(owner.getKey(), ticket);
+                if (loadedWaitlist != null) loadedWaitlist.add(entry);
+            }
+            case BOOK -> {
+                User owner = userIndex.findById(event.getUserId());
+                if (owner == null) return;
+                Ticket ticket = event.toTicket();
+                if (replayCancelled != null && replayCancelled.remove(ticket.getTicketId())) return;
+                TicketIndex.Entry indexed = ticketIndex.get(ticket.getTicketId());
+                boolean promoted = indexed != null && indexed.ticket().isWaitlisted();
+                boolean known = indexed != null && !promoted;
+                if (promoted) {
+                    // the waiting ticket takes the seat it was given
+                    Ticket waiting = indexed.ticket();
+                    waiting.setRow(ticket.getRow());
+                    waiting.setSeat(ticket.getSeat());
+                    waiting.setWaitlistNo(0);
+                    ticket = waiting;
+                } else if (indexed == null) {
+                    owner.getTicketsBooked().add(ticket);
+                    ticketIndex.add(owner.getKey(), ticket);
+                }
+                BookedSeat seat = bookedSeat(ticket);
+                // a known ticket already holds its seat in the snapshot; a new one that cannot claim it must
+                // not release it on cancel, since the seat belongs to someone else
+                if (seat != null && !seat.claim() && !known && replayUnheld != null) {
+                    replayUnheld.add(ticket.getTicketId());
+                }
+            }
+            case PASSWORD -> {
+                User owner = userIndex.findById(event.getUserId());
+                if (owner != null) owner.setHashedPassword(event.getHashedPassword());
+            }
+            case CANCEL -> {
+                TicketIndex.Entry entry = ticketIndex.get(event.getTicketId());
+                if (entry == null || !ticketIndex.remove(entry)) {
+                    // booking not seen yet (another shard log) or already dropped: nothing of ours to release
+                    if (replayCancelled != null) replayCancelled.add(event.getTicketId());
+                    return;
+                }
+                User owner = userIndex.findByKey(entry.owner());
+                if (owner != null) owner.getTicketsBooked().remove(entry.ticket());
+                if (replayUnheld != null && replayUnheld.remove(event.getTicketId())) return;
+                BookedSeat seat = bookedSeat(event.toTicket());
+                if (seat != null) seat.release();
+            }
+        }
+    }
+
+    // A reloaded route or coach layout, applied on the train's shard while no batch holds unlogged seats, so
+    // nothing is claimed on the old seats meanwhile. Refused if a live ticket would not fit it.
+    private String relayout(Train train, List<String> stations, int[] seatsPerCoach) {
+        batchLock.writeLock().lock();
+        try {
+            return await(engine.onTrainShard(train.getTrainNo(), () -> {
+                String refused = checkLayout(train, stations, seatsPerCoach);
+                if (refused != null) return refused;
+                train.relayout(stations, seatsPerCoach);
+                reopenSurges(train);
+                return null;
+            }));
+        } catch (IOException e) {
+            return e.getMessage();
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+
+    // Why the train's tickets for dates still to come do not fit the new route and coaches, or null if they do.
+    private String checkLayout(Train train, List<String> stations, int[] seatsPerCoach) {
+        for (TicketIndex.Entry entry : ticketIndex.findByTrain(train.getTrainNo(), null)) {
+            Ticket ticket = entry.ticket();
+            if (!TrainInventory.isBookableDate(ticket.getTravelLocalDate())) continue; // departed
+            int fromStop = Train.stopIndex(stations, ticket.getSource());
+            int toStop = Train.stopIndex(stations, ticket.getDestination());
+            if (fromStop < 0 || fromStop >= toStop) {
+                return "ticket " + ticket.getTicketId() + " travels from " + ticket.getSource() + " to "
+                        + ticket.getDestination() + ", which the new route does not";
+            }
+            int row = ticket.getRow();
+            if (!ticket.isWaitlisted() && (row >= seatsPerCoach.length || ticket.getSeat() >= seatsPerCoach[row])) {
+                return "ticket " + ticket.getTicketId() + " holds seat " + ticket.getSeat() + " of coach " + row
+                        + ", which the new coaches do not have";
+            }
+        }
+        return null;
+    }
+
+    // Surge queues hold the old seats and stop numbers: each is closed, its waiting requests told to retry,
+    // and a new queue opened on the new seats.
+    private void reopenSurges(Train train) {
+        for (Map.Entry<String, SurgeQueue> surge : surges.entrySet()) {
+            SurgeQueue old = surge.getValue();
+            LocalDate travelDate = old.travelDate();
+            if (!surge.getKey().equals(surgeKey(train.getTrainNo(), travelDate))) continue; // another train
+            if (train.getInventory().isBookable(travelDate)) {
+                surges.replace(surge.getKey(), old, new SurgeQueue(travelDate, train.getInventory().forDate(travelDate)));
+            } else {
+                surges.remove(surge.getKey(), old);
+            }
+            old.close();
+        }
+    }
+
+    // The seat a ticket holds in its date partition
+    record BookedSeat(SeatInventory inventory, int row, int seat, int fromStop, int toStop) {
+        boolean claim() {
+            return inventory.tryBook(row, seat, fromStop, toStop);
+        }
+
+        boolean release() {
+            return inventory.release(row, seat, fromStop, toStop);
+        }
+
+        // takes every leg of the seat that is still free, e.g. to win back a seat partly handed to others
+        void claimFree() {
+            for (int leg = fromStop; leg < toStop; leg++) inventory.tryBook(row, seat, leg, leg + 1);
+        }
+    }
+
+    /**
+     * Resolves where a ticket sits in the inventory, or null if its train, date or seat no longer resolve
+     * (e.g. the train has departed and its partition was evicted).
+     */
+    BookedSeat bookedSeat(Ticket ticket) {
+        Train train = trainService.getTrain(ticket.getTrainNo());
+        LocalDate travelDate = ticket.getTravelLocalDate();
+        if (train == null || travelDate == null) return null;
+        TrainInventory trainInventory = train.getInventory();
+        if (!trainInventory.isBookable(travelDate)) return null;
+        SeatInventory inventory = trainInventory.forDate(travelDate);
+        int fromStop = train.getStopIndex(ticket.getSource());
+        int toStop = train.getStopIndex(ticket.getDestination());
+        if (!inventory.isValidSeat(ticket.getRow(), ticket.getSeat()) || !inventory.isValidJourney(fromStop, toStop)) {
+            return null;
+        }
+        return new BookedSeat(inventory, ticket.getRow(), ticket.getSeat(), fromStop, toStop);
+    }
+
+    /**
+     * The waitlist a ticket joins or waits on, or null if its train or date no longer resolve.
+     */
+    Waitlist waitlistOf(Ticket ticket) {
+        Train train = trainService.getTrain(ticket.getTrainNo());
+        LocalDate travelDate = ticket.getTravelLocalDate();
+        if (train == null || travelDate == null) return null;
+        TrainInventory trainInventory = train.getInventory();
+        if (!trainInventory.isBookable(travelDate)) return null;
+        return trainInventory.waitlist(travelDate);
+    }
+
+    static String surgeKey(String trainNo, LocalDate travelDate) {
+        return StationIndex.normalize(trainNo) + "@" + travelDate;
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    void updateUserInList(User updatedUser) {
+        User current = userIndex.findById(updatedUser.getUserId());
+        if (current == updatedUser) return;
+        synchronized (userList) {
+            int index = current == null ? -1 : userList.indexOf(current);
+            if (index < 0) return;
+            userList.set(index, updatedUser);
+        }
+        userIndex.replace(current, updatedUser);
+    }
+}
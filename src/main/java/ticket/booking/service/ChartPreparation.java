@@ -0,0 +1,219 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.index.ConnectionIndex;
+import ticket.booking.index.StationIndex;
+import ticket.booking.index.TicketIndex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Final reservation charts: for every train leaving in a time window, its passengers by coach (the ticket's
+ * row) and seat, waitlisted tickets last, written as one CSV file per train and date.
+ * <p>
+ * Runs as a fork-join job on {@code -Dbooking.charts.parallelism} threads (default one per core). A single
+ * parallel pass over the ticket index picks out the tickets of the charted departures, with bookings paused for
+ * that pass only, and groups references to them, not copies. Each worker then builds, sorts and writes one
+ * departure's chart at a time, streamed straight to its file, and drops it once the file is closed, so no more
+ * charts than workers are ever held in memory. Seats are read when a chart is built: a ticket promoted off the
+ * waitlist after the pass is charted in its new seat.
+ * <p>
+ * Usage: {@code ChartPreparation <outputDir> [hours]} charts the departures of the next {@code hours}
+ * (default 24).
+ */
+public final class ChartPreparation {
+
+    static final int PARALLELISM = Integer.getInteger("booking.charts.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final Pattern UNSAFE_IN_FILE_NAME = Pattern.compile("[^A-Za-z0-9-]");
+
+    public record Summary(int charts, long passengers, long waitlisted, long millis) {}
+
+    private record ChartKey(String trainNo, LocalDate serviceDate) {}
+
+    // one train leaving its first stop on serviceDate
+    private record Departure(Train train, LocalDate serviceDate, LocalDateTime departure) {}
+
+    // a chart line, copied out of its ticket when its chart is built
+    private record Passenger(int coach, int seat, long waitlistNo, int fromStop, String name, String from, String to,
+                             String ticketId) {
+        static Passenger of(Ticket ticket, Train train) {
+            return new Passenger(ticket.getRow(), ticket.getSeat(), ticket.getWaitlistNo(),
+                    train.getStopIndex(ticket.getSource()), ticket.getPassengerName(), ticket.getSource(),
+                    ticket.getDestination(), ticket.getTicketId());
+        }
+    }
+
+    // seated passengers by coach, seat and boarding stop, then the waitlist in order
+    private static final Comparator<Passenger> CHART_ORDER = Comparator
+            .comparingLong(Passenger::waitlistNo)
+            .thenComparingInt(Passenger::coach)
+            .thenComparingInt(Passenger::seat)
+            .thenComparingInt(Passenger::fromStop);
+
+    private final BookingStore store;
+
+    ChartPreparation(BookingStore store) {
+        this.store = store;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ChartPreparation <outputDir> [hours]");
+            return;
+        }
+        LocalDateTime from = LocalDateTime.now();
+        long hours = args.length > 1 ? Long.parseLong(args[1]) : 24;
+        Summary summary = new UserBookingService().prepareCharts(from, from.plusHours(hours), Path.of(args[0]));
+        System.out.printf("%,d charts, %,d passengers (%,d waitlisted) written to %s in %,d ms%n", summary.charts(),
+                summary.passengers(), summary.waitlisted(), args[0], summary.millis());
+    }
+
+    /**
+     * Writes the chart of every train leaving its first stop in [{@code from}, {@code to}) into {@code dir},
+     * replacing earlier charts of the same departures.
+     */
+    Summary prepare(LocalDateTime from, LocalDateTime to, Path dir) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        Map<ChartKey, Departure> departures = departures(from, to);
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            Map<ChartKey, List<Ticket>> tickets = group(pool, departures, from.toLocalDate(), to.toLocalDate());
+            LongAdder passengers = new LongAdder();
+            LongAdder waitlisted = new LongAdder();
+            pool.submit(() -> departures.entrySet().parallelStream().forEach(departure -> {
+                List<Ticket> charted = tickets.remove(departure.getKey()); // dropped along with the chart
+                Train train = departure.getValue().train();
+                List<Passenger> chart = charted == null ? List.of() : charted.stream()
+                        .map(ticket -> Passenger.of(ticket, train))
+                        .sorted(CHART_ORDER)
+                        .toList();
+                write(dir, departure.getValue(), chart);
+                passengers.add(chart.size());
+                waitlisted.add(chart.stream().filter(passenger -> passenger.waitlistNo() > 0).count());
+            })).join();
+            return new Summary(departures.size(), passengers.sum(), waitlisted.sum(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Trains run daily, so each one leaves once per date the window touches; a train without a first stop time
+    // is not charted.
+    private Map<ChartKey, Departure> departures(LocalDateTime from, LocalDateTime to) {
+        Map<ChartKey, Departure> departures = new HashMap<>();
+        for (Train train : store.trainService.getTrains()) {
+            LocalTime time = ConnectionIndex.firstDeparture(train);
+            if (time == null) continue;
+            for (LocalDate date = from.toLocalDate(); !date.isAfter(to.toLocalDate()); date = date.plusDays(1)) {
+                LocalDateTime departure = date.atTime(time);
+                if (departure.isBefore(from) || !departure.isBefore(to)) continue;
+                departures.put(new ChartKey(StationIndex.normalize(train.getTrainNo()), date),
+                        new Departure(train, date, departure));
+            }
+        }
+        return departures;
+    }
+
+    // The one pass over every ticket, keeping references only. The date test comes first and rules out nearly
+    // all of them cheaply. Holding the snapshot lock keeps bookings and cancellations out, so the index is a
+    // consistent cut; the batch lock is not needed, since a batch's seats are only indexed once logged.
+    private Map<ChartKey, List<Ticket>> group(ForkJoinPool pool, Map<ChartKey, Departure> departures,
+                                              LocalDate firstDate, LocalDate lastDate) {
+        if (departures.isEmpty()) return new ConcurrentHashMap<>();
+        Map<String, String> trainKeys = new ConcurrentHashMap<>(); // ticket train number -> normalized
+        store.snapshotLock.writeLock().lock();
+        try {
+            return pool.submit(() -> store.ticketIndex.entries().parallelStream()
+                    .map(TicketIndex.Entry::ticket)
+                    .filter(ticket -> {
+                        LocalDate date = ticket.getTravelLocalDate();
+                        return date != null && !date.isBefore(firstDate) && !date.isAfter(lastDate)
+                                && ticket.getTrainNo() != null;
+                    })
+                    .map(ticket -> Map.entry(new ChartKey(
+                            trainKeys.computeIfAbsent(ticket.getTrainNo(), StationIndex::normalize),
+                            ticket.getTravelLocalDate()), ticket))
+                    .filter(keyed -> departures.containsKey(keyed.getKey())) // else the train left outside the window
+                    .collect(Collectors.groupingByConcurrent(Map.Entry::getKey,
+                            Collectors.mapping(Map.Entry::getValue, Collectors.toList())))).join();
+        } finally {
+            store.snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // chart is already in CHART_ORDER
+    private static void write(Path dir, Departure departure, List<Passenger> chart) {
+        Path file = dir.resolve(fileName(departure.train().getTrainNo()) + "_" + departure.serviceDate() + ".csv");
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# " + departure.train().getTrainInfo() + ", departs " + departure.departure());
+            out.newLine();
+            out.write("coach,seat,waitlist,passenger,from,to,ticketId");
+            out.newLine();
+            for (Passenger passenger : chart) {
+                if (passenger.waitlistNo() == 0) {
+                    out.write(Integer.toString(passenger.coach()));
+                    out.write(',');
+                    out.write(Integer.toString(passenger.seat()));
+                    out.write(",,");
+                } else {
+                    out.write(",,");
+                    out.write(Long.toString(passenger.waitlistNo()));
+                    out.write(',');
+                }
+                writeField(out, passenger.name());
+                out.write(',');
+                writeField(out, passenger.from());
+                out.write(',');
+                writeField(out, passenger.to());
+                out.write(',');
+                out.write(passenger.ticketId());
+                out.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String fileName(String trainNo) {
+        return UNSAFE_IN_FILE_NAME.matcher(trainNo).replaceAll("_");
+    }
+
+    // as a CSV field, quoted only if it holds a comma, quote or line break
+    private static void writeField(BufferedWriter out, String value) throws IOException {
+        if (value == null) return;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+                return;
+            }
+        }
+        out.write(value);
+    }
+}
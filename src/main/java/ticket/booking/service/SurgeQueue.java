@@ -0,0 +1,137 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Ticket;
+import ticket.booking.inventory.SeatInventory;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Admission queue for one train and date in surge mode (the tatkal window), where far more people ask for
+ * seats than there are seats.
+ * <p>
+ * Requests are shed before they queue when they cannot be served: the stretch has no free seat left, more
+ * requests for it are already waiting than it has free seats, the queue holds {@code -Dbooking.surge.capacity}
+ * requests (default 10,000), or the user already has {@code -Dbooking.surge.perUser} waiting (default 1).
+ * Admitted requests wait in one queue per user and are handed to the train's booking shard in batches that
+ * take one request from each user in turn, so nobody gets ahead by sending more requests.
+ */
+class SurgeQueue {
+
+    static final int CAPACITY = Integer.getInteger("booking.surge.capacity", 10_000);
+    static final int PER_USER = Integer.getInteger("booking.surge.perUser", 1);
+    static final int BATCH = 256;
+
+    record Request(UUID owner, Ticket ticket, int fromStop, int toStop, CompletableFuture<SurgeResult> result) {}
+
+    private final LocalDate travelDate;
+    private final SeatInventory inventory;
+    // users in turn order: the next batch starts with the first; a served user with more requests goes last
+    private final LinkedHashMap<UUID, ArrayDeque<Request>> byUser = new LinkedHashMap<>(); // guarded by this
+    private final Map<Long, Integer> waitingByStretch = new HashMap<>(); // guarded by this
+    private int size; // guarded by this
+    private boolean draining; // guarded by this: a batch is queued on, or running on, the shard
+    private boolean closed; // guarded by this
+
+    SurgeQueue(LocalDate travelDate, SeatInventory inventory) {
+        this.travelDate = travelDate;
+        this.inventory = inventory;
+    }
+
+    LocalDate travelDate() {
+        return travelDate;
+    }
+
+    SeatInventory inventory() {
+        return inventory;
+    }
+
+    /**
+     * Queues {@code request}, or completes its result at once if it is shed. Returns true if the caller must
+     * start draining the queue on the shard.
+     */
+    synchronized boolean admit(Request request) {
+        if (closed) {
+            request.result().complete(SurgeResult.retryLater("Tatkal queue was reopened, retry"));
+            return false;
+        }
+        long stretch = stretch(request.fromStop(), request.toStop());
+        int free = inventory.countFree(request.fromStop(), request.toStop());
+        if (free == 0) {
+            request.result().complete(SurgeResult.soldOut());
+            return false;
+        }
+        if (size >= CAPACITY) {
+            request.result().complete(SurgeResult.retryLater("Too many requests for this train, retry later"));
+            return false;
+        }
+        ArrayDeque<Request> own = byUser.get(request.owner());
+        if (own != null && own.size() >= PER_USER) {
+            request.result().complete(SurgeResult.retryLater("Your earlier request is still being processed"));
+            return false;
+        }
+        int waiting = waitingByStretch.getOrDefault(stretch, 0);
+        if (waiting >= free) {
+            request.result().complete(SurgeResult.retryLater("All remaining seats are being allocated, retry later"));
+            return false;
+        }
+        if (own == null) byUser.put(request.owner(), own = new ArrayDeque<>());
+        own.add(request);
+        waitingByStretch.put(stretch, waiting + 1);
+        size++;
+        if (draining) return false;
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Takes up to {@value #BATCH} requests, one per user in turn. Stops draining if there are none.
+     */
+    synchronized List<Request> nextBatch() {
+        List<Request> batch = new ArrayList<>(Math.min(size, BATCH));
+        while (batch.size() < BATCH && !byUser.isEmpty()) {
+            Iterator<Map.Entry<UUID, ArrayDeque<Request>>> first = byUser.entrySet().iterator();
+            Map.Entry<UUID, ArrayDeque<Request>> turn = first.next();
+            first.remove();
+            Request request = turn.getValue().poll();
+            if (!turn.getValue().isEmpty()) byUser.put(turn.getKey(), turn.getValue());
+            batch.add(request);
+            waitingByStretch.merge(stretch(request.fromStop(), request.toStop()), -1, Integer::sum);
+            size--;
+        }
+        if (batch.isEmpty()) draining = false;
+        return batch;
+    }
+
+    /**
+     * Turns away every waiting request and any that arrive later, e.g. when the train's seats were re-laid out
+     * and a new queue took this one's place. Runs on the train's shard, so no batch is half-served.
+     */
+    synchronized void close() {
+        closed = true;
+        for (ArrayDeque<Request> requests : byUser.values()) {
+            for (Request request : requests) {
+                request.result().complete(SurgeResult.retryLater("Tatkal queue was reopened, retry"));
+            }
+        }
+        byUser.clear();
+        waitingByStretch.clear();
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private static long stretch(int fromStop, int toStop) {
+        return ((long) fromStop << 32) | toStop;
+    }
+}
@@ -0,0 +1,34 @@
+package ticket.booking.service;
+
+import ticket.booking.entities.Ticket;
+
+/**
+ * Outcome of a tatkal booking made while a train is in surge mode: a booked ticket, or the reason there is none.
+ * {@link Status#SOLD_OUT} holds until someone cancels; {@link Status#RETRY_LATER} means the request was shed or
+ * could not be saved and may succeed if sent again; {@link Status#INVALID} means it never can (unknown train or
+ * stretch, tatkal not open).
+ */
+public record SurgeResult(Status status, Ticket ticket, String message) {
+
+    public enum Status { BOOKED, SOLD_OUT, RETRY_LATER, INVALID }
+
+    static SurgeResult booked(Ticket ticket) {
+        return new SurgeResult(Status.BOOKED, ticket, null);
+    }
+
+    static SurgeResult soldOut() {
+        return new SurgeResult(Status.SOLD_OUT, null, "Sold out");
+    }
+
+    static SurgeResult retryLater(String message) {
+        return new SurgeResult(Status.RETRY_LATER, null, message);
+    }
+
+    static SurgeResult invalid(String message) {
+        return new SurgeResult(Status.INVALID, null, message);
+    }
+
+    public boolean isBooked() {
+        return status == Status.BOOKED;
+    }
+}
@@ -1,84 +1,374 @@
 package ticket.booking.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import ticket.booking.entities.Train;
+import ticket.booking.index.ConnectionIndex;
+import ticket.booking.index.StationIndex;
+import ticket.booking.metrics.Metrics;
+import ticket.booking.persistence.AtomicFiles;
+import ticket.booking.persistence.DataDirLock;
+import ticket.booking.persistence.DataFiles;
+import ticket.booking.persistence.StreamingJsonLoader;
+import ticket.booking.persistence.TrainSnapshot;
+import ticket.booking.persistence.WriteBehind;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 
+/**
+ * The train repository. {@link #getInstance()} loads the trains once and every service shares that instance,
+ * so searches never touch the disk and all callers see the same Train objects. Edits made to trains.json by
+ * hand are picked up by a file watcher and merged into the existing objects.
+ * <p>
+ * Trains come from the binary snapshot (trains.bin, see {@link TrainSnapshot}) when there is one, otherwise
+ * trains.json is imported. Either way they are read on a background thread and each train is searchable as
+ * soon as it has been read, so searches are served while a large file is still loading. Anything that needs
+ * every train (bookings replay, snapshots) waits for {@link #awaitLoaded()} first.
+ */
 public class TrainService {
-    private List<Train> trainList;
+    private final List<Train> trainList = new ArrayList<>(); // guarded by this
+    private final StationIndex stationIndex = new StationIndex();
+    private volatile ConnectionIndex connectionIndex; // rebuilt when the timetable version moves on
+    private final Object connectionIndexLock = new Object();
+    private final Map<String, Train> trainsByNo = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String TRAIN_DB_PATH = "src/main/resources/localDB/trains.json";
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+    private volatile FileTime lastOwnWrite; // so the watcher ignores files we wrote ourselves
+    private final Path trainsPath = DataFiles.trains();
+    private final Path snapshotPath = DataFiles.trainSnapshot();
+    private static volatile TrainService instance;
+    private static final WriteBehind WRITE_BEHIND = new WriteBehind("train-db-writer");
+    private final Object reloadLock = new Object(); // one reload at a time; never held with `this` by others
+    private volatile Relayout relayout = (train, stations, seatsPerCoach) -> {
+        train.relayout(stations, seatsPerCoach);
+        return null;
+    };
 
-    public TrainService() throws IOException {
-        File trainsFile = new File(TRAIN_DB_PATH);
-        if (!trainsFile.exists()) {
-            trainList = new ArrayList<>();
-            return;
-        }
-        try {
-            trainList = objectMapper.readValue(trainsFile, new TypeReference<List<Train>>() {});
-            if (trainList == null) trainList = new ArrayList<>();
-            // Initialize seats if missing
-            for (Train t : trainList) {
-                if (t.getSeats() == null || t.getSeats().isEmpty()) {
-                    List<List<Integer>> defaultSeats = new ArrayList<>();
-                    for (int i = 0; i < 10; i++) {
-                        defaultSeats.add(new ArrayList<>(Collections.nCopies(6, 0)));
-                    }
-                    t.setSeats(defaultSeats);
-                }
+    /**
+     * Applies a reloaded route or coach layout to a train that may hold bookings. Returns null once applied, or
+     * why the change was refused.
+     */
+    public interface Relayout {
+        String apply(Train train, List<String> stations, int[] seatsPerCoach);
+    }
+
+    private TrainService() {
+    }
+
+    /**
+     * The shared repository, loaded on first use and kept in sync with trains.json from then on.
+     */
+    public static TrainService getInstance() throws IOException {
+        TrainService current = instance;
+        if (current != null) return current;
+        synchronized (TrainService.class) {
+            if (instance == null) {
+                DataDirLock.acquire(DataFiles.dataDir()); // no other process may write these trains meanwhile
+                TrainService service = new TrainService();
+                service.loadInBackground();
+                service.watchForChanges();
+                instance = service;
             }
-        } catch (IOException e) {
-            System.err.println("Error reading train DB, starting with empty list: " + e.getMessage());
-            trainList = new ArrayList<>();
+            return instance;
         }
     }
 
+    /**
+     * Blocks until trains.json has been read completely.
+     */
+    public void awaitLoaded() {
+        loaded.join();
+    }
+
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+
     public List<Train> searchTrains(String source, String destination) {
         if (source == null || destination == null) return Collections.emptyList();
-        String src = source.trim().toLowerCase();
-        String dest = destination.trim().toLowerCase();
+        long start = System.nanoTime();
+        List<Train> found = stationIndex.find(source, destination);
+        Metrics.SEARCH.recordSince(start);
+        return found;
+    }
+
+    /**
+     * Connection-scan index of the current timetable, for journeys with changes. Built after loading and again
+     * on the first call after the timetable changes; callers in between keep using the previous one.
+     */
+    public ConnectionIndex getConnectionIndex() {
+        awaitLoaded();
+        ConnectionIndex current = connectionIndex;
+        if (current != null && current.getVersion() == getTimetableVersion()) return current;
+        synchronized (connectionIndexLock) {
+            current = connectionIndex;
+            long version = getTimetableVersion(); // read before copying, so a change made meanwhile forces a rebuild
+            if (current != null && current.getVersion() == version) return current;
+            List<Train> trains;
+            synchronized (this) {
+                trains = new ArrayList<>(trainList);
+            }
+            current = ConnectionIndex.build(trains, version);
+            if (current.getSkippedTrains() > 0) {
+                System.err.println("Journey planner: skipped " + current.getSkippedTrains()
+                        + " trains with missing or out-of-order station times");
+            }
+            connectionIndex = current;
+            return current;
+        }
+    }
 
-        return trainList.stream()
-                .filter(train -> validTrain(train, src, dest))
-                .collect(Collectors.toList());
+    /**
+     * Changes whenever a train is added, removed, rerouted or retimed, i.e. whenever a search may return other
+     * trains.
+     */
+    public long getTimetableVersion() {
+        return stationIndex.getVersion();
+    }
+
+    /**
+     * Every loaded train, as a copy.
+     */
+    public List<Train> getTrains() {
+        awaitLoaded();
+        synchronized (this) {
+            return new ArrayList<>(trainList);
+        }
+    }
+
+    public Train getTrain(String trainNo) {
+        if (trainNo == null) return null;
+        return trainsByNo.get(StationIndex.normalize(trainNo));
     }
 
     public void addOrUpdateTrain(Train train) {
-        OptionalInt index = IntStream.range(0, trainList.size())
-                .filter(i -> trainList.get(i).getTrainNo().equalsIgnoreCase(train.getTrainNo()))
-                .findFirst();
-        if (index.isPresent()) {
-            trainList.set(index.getAsInt(), train);
-        } else {
+        awaitLoaded(); // saving a half-loaded list would drop the trains not read yet
+        synchronized (this) {
+            OptionalInt index = IntStream.range(0, trainList.size())
+                    .filter(i -> trainList.get(i).getTrainNo().equalsIgnoreCase(train.getTrainNo()))
+                    .findFirst();
+            if (index.isPresent()) {
+                trainList.set(index.getAsInt(), train);
+            } else {
+                trainList.add(train);
+            }
+            stationIndex.add(train);
+            trainsByNo.put(StationIndex.normalize(train.getTrainNo()), train);
+            saveTrainListToFile();
+        }
+    }
+
+    /**
+     * Binary snapshot of the trains, including seat occupancy. Callers keep bookings out while this runs.
+     */
+    public byte[] snapshot() throws IOException {
+        awaitLoaded();
+        synchronized (this) {
+            return TrainSnapshot.write(trainList);
+        }
+    }
+
+    public void saveSnapshot(byte[] snapshot) throws IOException {
+        TrainSnapshot.save(snapshotPath, snapshot);
+    }
+
+    /**
+     * Writes every train, occupancy included, to {@code file} as JSON in the trains.json layout.
+     */
+    public void exportJson(Path file) throws IOException {
+        awaitLoaded();
+        byte[] json;
+        synchronized (this) {
+            json = objectMapper.writeValueAsBytes(trainList);
+        }
+        AtomicFiles.write(file, json);
+        if (file.toAbsolutePath().equals(trainsPath.toAbsolutePath())) lastOwnWrite = Files.getLastModifiedTime(file);
+    }
+
+    /**
+     * Replaces how reloaded routes and coach layouts reach trains that may hold bookings. By default they are
+     * applied straight away; the booking store installs one that pauses the train's bookings and refuses
+     * changes its tickets do not fit.
+     */
+    public void setRelayout(Relayout relayout) {
+        this.relayout = relayout;
+    }
+
+    /**
+     * Re-reads trains.json after it was edited outside this process. Timetable fields are copied onto the
+     * existing Train objects; seat occupancy is kept, since the in-memory inventory is newer than any snapshot
+     * on disk, and moves with the seats when the route or coaches change (see {@link #setRelayout}). Trains
+     * missing from the file are dropped from search.
+     */
+    public void reload() {
+        awaitLoaded(); // the loader adds trains under this lock
+        merge();
+    }
+
+    // The timetable is merged under this object's lock; route and coach changes are applied after it is
+    // released, since they wait for the train's booking shard and compaction takes this lock with bookings paused.
+    private void merge() {
+        synchronized (reloadLock) {
+            Map<Train, Train> relaid = new LinkedHashMap<>(); // current -> reloaded
+            synchronized (this) {
+                mergeTimetable(relaid);
+            }
+            relaid.forEach(this::applyLayout);
+        }
+    }
+
+    private void mergeTimetable(Map<Train, Train> relaid) {
+        List<Train> fresh = new ArrayList<>();
+        try {
+            if (!Files.exists(trainsPath) || Files.getLastModifiedTime(trainsPath).equals(lastOwnWrite)) return;
+            if (Files.size(trainsPath) == 0) return; // caught mid-write; the next modify event brings the content
+            StreamingJsonLoader.readTrains(trainsPath, fresh::add);
+        } catch (IOException e) {
+            System.err.println("Error reloading train DB, keeping current trains: " + e.getMessage());
+            return;
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (Train train : fresh) {
+            initDefaultSeats(train);
+            String key = StationIndex.normalize(train.getTrainNo());
+            seen.add(key);
+            Train current = trainsByNo.get(key);
+            if (current == null) {
+                trainList.add(train);
+                trainsByNo.put(key, train);
+                stationIndex.add(train);
+                continue;
+            }
+            current.setTrainName(train.getTrainName());
+            if (!Objects.equals(current.getStations(), train.getStations())
+                    || !Arrays.equals(current.getSeatsPerCoach(), train.getSeatsPerCoach())) {
+                relaid.put(current, train); // the times go with the route
+            } else if (!Objects.equals(current.getStationTimes(), train.getStationTimes())) {
+                current.setStationTimes(train.getStationTimes());
+                stationIndex.add(current); // same stops, but the journey planner needs the new version
+            }
+        }
+        for (Iterator<Train> it = trainList.iterator(); it.hasNext(); ) {
+            String key = StationIndex.normalize(it.next().getTrainNo());
+            if (seen.contains(key)) continue;
+            it.remove();
+            trainsByNo.remove(key);
+            stationIndex.remove(key);
+        }
+    }
+
+    private void applyLayout(Train current, Train reloaded) {
+        String refused = relayout.apply(current, reloaded.getStations(), reloaded.getSeatsPerCoach());
+        if (refused != null) {
+            System.err.println("Keeping the old route and coaches of train " + current.getTrainNo() + ": " + refused);
+            return;
+        }
+        current.setStationTimes(reloaded.getStationTimes());
+        stationIndex.add(current);
+    }
+
+    private void loadInBackground() {
+        Thread loader = new Thread(() -> {
+            try {
+                if (loadSnapshot()) {
+                    // trains.json edited while we were down: take its timetable, keep the snapshot's bookings
+                    if (Files.exists(trainsPath)
+                            && Files.getLastModifiedTime(trainsPath).compareTo(Files.getLastModifiedTime(snapshotPath)) > 0) {
+                        merge();
+                    }
+                } else {
+                    StreamingJsonLoader.readTrains(trainsPath, this::addLoaded);
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading train DB, keeping the trains read so far: " + e.getMessage());
+            } finally {
+                loaded.complete(null);
+            }
+            getConnectionIndex(); // ready before the first journey search
+        }, "train-db-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // The snapshot is verified before any train is handed out, so a bad one leaves nothing behind to undo.
+    private boolean loadSnapshot() {
+        if (!Files.exists(snapshotPath)) return false;
+        try {
+            TrainSnapshot.read(snapshotPath, this::addLoaded);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Ignoring train snapshot, importing trains.json instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void addLoaded(Train train) {
+        initDefaultSeats(train);
+        synchronized (this) {
             trainList.add(train);
         }
-        saveTrainListToFile();
+        trainsByNo.put(StationIndex.normalize(train.getTrainNo()), train);
+        stationIndex.add(train);
     }
 
+    private void watchForChanges() throws IOException {
+        Path trainsFile = trainsPath.toAbsolutePath();
+        Path directory = trainsFile.getParent();
+        if (!Files.isDirectory(directory)) return;
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Thread watcher = new Thread(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                boolean changed = key.pollEvents().stream()
+                        .anyMatch(event -> trainsFile.getFileName().equals(event.context()));
+                key.reset();
+                if (changed) reload();
+            }
+        }, "train-db-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    // Serialized under the caller's lock, written by the write-behind thread; the caller does not wait for disk.
     private void saveTrainListToFile() {
+        byte[] json;
+        long start = System.nanoTime();
         try {
-            objectMapper.writeValue(new File(TRAIN_DB_PATH), trainList);
+            json = objectMapper.writeValueAsBytes(trainList);
+            Metrics.JSON_SAVE.recordSince(start);
+            Metrics.JSON_SAVE_BYTES.add(json.length);
         } catch (IOException e) {
             System.err.println("Error saving train list: " + e.getMessage());
+            return;
         }
+        WRITE_BEHIND.write(trainsPath, json).thenRun(() -> {
+            try {
+                lastOwnWrite = Files.getLastModifiedTime(trainsPath);
+            } catch (IOException e) {
+                // the watcher will re-read our own file, which is harmless
+            }
+        });
     }
 
-    private boolean validTrain(Train train, String source, String destination) {
-        List<String> stations = train.getStations();
-        if (stations == null || stations.isEmpty()) return false;
-        List<String> lowerStations = stations.stream()
-                .filter(Objects::nonNull)
-                .map(String::toLowerCase)
-                .toList();
-        int srcIndex = lowerStations.indexOf(source);
-        int destIndex = lowerStations.indexOf(destination);
-        return srcIndex != -1 && destIndex != -1 && srcIndex < destIndex;
+    // Initialize seats if missing: 10 coaches of 6
+    private static void initDefaultSeats(Train t) {
+        if (t.getSeatsPerCoach().length == 0) {
+            int[] defaultSeats = new int[10];
+            Arrays.fill(defaultSeats, 6);
+            t.setSeatsPerCoach(defaultSeats);
+        }
     }
 }
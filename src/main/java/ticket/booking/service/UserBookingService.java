@@ -1,150 +1,567 @@
 package ticket.booking.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.auth.AuthService;
+import ticket.booking.auth.Session;
 import ticket.booking.entities.Ticket;
 import ticket.booking.entities.Train;
 import ticket.booking.entities.User;
-import ticket.booking.util.UserServiceUtil;
+import ticket.booking.index.ConnectionIndex;
+import ticket.booking.index.TicketIndex;
+import ticket.booking.inventory.SeatInventory;
+import ticket.booking.inventory.SeatPreference;
+import ticket.booking.inventory.TrainInventory;
+import ticket.booking.inventory.Waitlist;
+import ticket.booking.metrics.Metrics;
+import ticket.booking.persistence.BookingEvent;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 public class UserBookingService {
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private List<User> userList;
+    private final BookingStore store;
     private User user;
-    private static final String USER_FILE_PATH = "src/main/resources/localDB/users.json";
+    private static final AuthService AUTH = AuthService.createDefault();
+    // time allowed to change trains unless the caller says otherwise
+    public static final long MIN_TRANSFER_MILLIS = Long.getLong("booking.planner.minTransferMillis", 15 * 60_000L);
 
     public UserBookingService(User user) throws IOException {
         this.user = user;
-        loadUserListFromFile();
+        this.store = BookingStore.getInstance();
     }
 
     public UserBookingService() throws IOException {
-        loadUserListFromFile();
+        this.store = BookingStore.getInstance();
     }
 
-    private void loadUserListFromFile() throws IOException {
-        File users = new File(USER_FILE_PATH);
-        if (!users.exists()) {
-            userList = new ArrayList<>();
-            return;
-        }
-        userList = objectMapper.readValue(users, new TypeReference<List<User>>() {});
-        if (userList == null) userList = new ArrayList<>();
-        userList.forEach(u -> {
-            if (u.getTicketsBooked() == null) u.setTicketsBooked(new ArrayList<>());
-        });
+    /**
+     * Folds the event log into a fresh users.json/trains.json snapshot and starts a new log.
+     */
+    public void compact() throws IOException {
+        store.compact();
     }
 
-    private void saveUserListToFile() throws IOException {
-        objectMapper.writeValue(new File(USER_FILE_PATH), userList);
+    public User loginUser(String loginInput, String password) {
+        Session session = login(loginInput, password);
+        return session == null ? null : this.user;
     }
 
-    public User loginUser(String loginInput, String password) {
+    /**
+     * Verifies the credentials on the auth pool and opens a session for the user. Returns null if the
+     * credentials are wrong or the auth pool is saturated.
+     */
+    public Session login(String loginInput, String password) {
+        long start = System.nanoTime();
+        Session session = authenticate(loginInput, password);
+        Metrics.LOGIN.recordSince(start);
+        if (session == null) Metrics.LOGIN_FAILED.increment();
+        return session;
+    }
+
+    private Session authenticate(String loginInput, String password) {
         if (loginInput == null || password == null) return null;
-        Optional<User> foundUser = userList.stream()
-                .filter(u -> (u.getEmail() != null && u.getEmail().equalsIgnoreCase(loginInput)) ||
-                        (u.getPhoneNumber() != null && u.getPhoneNumber().equals(loginInput)))
-                .filter(u -> UserServiceUtil.checkPassword(password, u.getHashedPassword()))
-                .findFirst();
-        if (foundUser.isPresent()) {
-            this.user = foundUser.get();
-            System.out.println("Login successful. Welcome, " + user.getName() + "!");
-            return this.user;
-        } else {
+        List<User> candidates = new ArrayList<>(2);
+        User byEmail = store.userIndex.findByEmail(loginInput);
+        User byPhone = store.userIndex.findByPhone(loginInput);
+        if (byEmail != null) candidates.add(byEmail);
+        if (byPhone != null && byPhone != byEmail) candidates.add(byPhone);
+        if (candidates.isEmpty()) {
+            System.out.println("Invalid credentials.");
+            return null;
+        }
+
+        AuthService.Verified verified;
+        try {
+            verified = AUTH.authenticate(candidates, password).join();
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many logins right now, please try again.");
+            return null;
+        }
+        if (verified == null) {
             System.out.println("Invalid credentials.");
             return null;
         }
+        if (verified.rehashedPassword() != null) updatePassword(verified.user(), verified.rehashedPassword());
+        this.user = verified.user();
+        System.out.println("Login successful. Welcome, " + user.getName() + "!");
+        return AUTH.openSession(user);
+    }
+
+    /**
+     * Makes the session's user the current user without checking the password again. Returns null if the
+     * session is unknown or expired.
+     */
+    public User resumeSession(String token) {
+        Session session = AUTH.resume(token);
+        if (session == null) return null;
+        User sessionUser = store.userIndex.findById(session.userId());
+        if (sessionUser != null) this.user = sessionUser;
+        return sessionUser;
+    }
+
+    public void logout(String token) {
+        AUTH.closeSession(token);
+        this.user = null;
+    }
+
+    // Stores a re-hashed password. Failing to log it is harmless: the old hash still verifies.
+    private void updatePassword(User target, String hashedPassword) {
+        CompletableFuture<Void> logged;
+        store.snapshotLock.readLock().lock();
+        try {
+            target.setHashedPassword(hashedPassword);
+            logged = store.eventLog.append(BookingEvent.passwordChange(target.getUserId(), hashedPassword));
+        } finally {
+            store.snapshotLock.readLock().unlock();
+        }
+        try {
+            BookingStore.await(logged);
+        } catch (IOException e) {
+            System.err.println("Error saving re-hashed password: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hashes a new user's password on the auth pool, so sign-ups count against the same bound as logins.
+     *
+     * @throws RejectedExecutionException if the auth pool is saturated
+     */
+    public String hashPassword(String password) {
+        return AUTH.hash(password).join();
     }
 
     public Boolean signUp(User newUser) {
         try {
             if (newUser == null) return false;
-            boolean exists = userList.stream().anyMatch(u ->
-                    (u.getEmail() != null && u.getEmail().equalsIgnoreCase(newUser.getEmail())) ||
-                            (u.getPhoneNumber() != null && u.getPhoneNumber().equals(newUser.getPhoneNumber()))
-            );
-            if (exists) return false;
-
-            newUser.setUserId(UUID.randomUUID().toString());
-            if (newUser.getTicketsBooked() == null) newUser.setTicketsBooked(new ArrayList<>());
-            userList.add(newUser);
-            saveUserListToFile();
+            CompletableFuture<Void> logged;
+            store.snapshotLock.readLock().lock();
+            try {
+                newUser.setUserId(UUID.randomUUID().toString());
+                if (!store.userIndex.register(newUser)) return false;
+                if (newUser.getTicketsBooked() == null) newUser.setTicketsBooked(new ArrayList<>());
+                store.userList.add(newUser);
+                logged = store.eventLog.append(BookingEvent.signUp(newUser));
+            } finally {
+                store.snapshotLock.readLock().unlock();
+            }
+            BookingStore.await(logged);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
+            store.userIndex.remove(newUser);
+            store.userList.remove(newUser);
             return false;
         }
     }
 
+    /**
+     * The train a ticket was booked on. Tickets only store the train number, so it is looked up each time.
+     */
+    public Train getTrain(Ticket ticket) {
+        return store.trainService.getTrain(ticket.getTrainNo());
+    }
+
     public List<Train> getTrains(String source, String destination) {
+        return store.trainService.searchTrains(source, destination);
+    }
+
+    /**
+     * Trains from {@code source} to {@code destination} with the seats still free on {@code travelDate}, served
+     * from the availability cache. Returns null if the date is outside the booking window.
+     */
+    public List<AvailabilityCache.TrainAvailability> searchAvailability(String source, String destination, LocalDate travelDate) {
+        if (!TrainInventory.isBookableDate(travelDate)) {
+            System.out.println("Bookings are open only for the next " + TrainInventory.BOOKING_WINDOW_DAYS + " days!");
+            return null;
+        }
+        return store.availabilityCache.search(source, destination, travelDate);
+    }
+
+    /**
+     * Earliest-arriving journey from {@code source} to {@code destination} leaving at or after
+     * {@code departAfter}, with up to {@code maxChanges} changes of at least {@code minTransferMillis} each, or
+     * null if there is none.
+     */
+    public ConnectionIndex.Journey planJourney(String source, String destination, LocalDateTime departAfter,
+                                               int maxChanges, long minTransferMillis) {
+        return store.trainService.getConnectionIndex()
+                .earliestArrival(source, destination, departAfter, maxChanges, minTransferMillis);
+    }
+
+    public ConnectionIndex.Journey planJourney(String source, String destination, LocalDateTime departAfter) {
+        return planJourney(source, destination, departAfter, ConnectionIndex.MAX_CHANGES, MIN_TRANSFER_MILLIS);
+    }
+
+    public AvailabilityCache.Stats getAvailabilityCacheStats() {
+        return store.availabilityCache.getStats();
+    }
+
+    public Ticket bookTrainSeat(Train train, int row, int seat, LocalDate travelDate, User user) {
+        List<String> stations = train.getStations();
+        return bookTrainSeat(train, stations.get(0), stations.get(stations.size() - 1), row, seat, travelDate, user);
+    }
+
+    public Ticket bookTrainSeat(Train train, String source, String destination, int row, int seat, LocalDate travelDate, User user) {
+        long start = System.nanoTime();
         try {
-            TrainService trainService = new TrainService();
-            return trainService.searchTrains(source, destination);
+            return bookSeat(train, source, destination, row, seat, travelDate, user);
+        } finally {
+            Metrics.BOOK.recordSince(start);
+        }
+    }
+
+    private Ticket bookSeat(Train train, String source, String destination, int row, int seat, LocalDate travelDate, User user) {
+        Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+        if (liveTrain == null) {
+            System.out.println("Unknown train " + train.getTrainNo() + "!");
+            return null;
+        }
+        if (inSurge(liveTrain, travelDate)) return null;
+        SeatInventory inventory = seatsFor(liveTrain, source, destination, travelDate);
+        if (inventory == null) return null;
+        int fromStop = liveTrain.getStopIndex(source);
+        int toStop = liveTrain.getStopIndex(destination);
+        if (!inventory.isValidSeat(row, seat)) {
+            System.out.println("Invalid seat index!");
+            return null;
+        }
+
+        Ticket ticket = newTicket(liveTrain, fromStop, toStop, travelDate, user);
+        ticket.setRow(row);
+        ticket.setSeat(seat);
+
+        store.updateUserInList(user);
+        try {
+            if (!BookingStore.await(store.engine.book(user.getKey(), ticket, inventory, fromStop, toStop))) {
+                Metrics.SEAT_TAKEN.increment();
+                System.out.println("Seat already booked!");
+                return null;
+            }
+            Metrics.BOOKED.increment();
+            return ticket;
         } catch (IOException e) {
+            Metrics.BOOK_ERRORS.increment();
             e.printStackTrace();
-            return new ArrayList<>();
+            return null;
         }
     }
 
-    public Ticket bookTrainSeat(Train train, int row, int seat, String travelDate, User user) {
+    /**
+     * Puts {@code train} in surge mode for {@code travelDate}, e.g. when its tatkal window opens: from now on
+     * its seats are only sold through {@link #bookTatkal}. Returns false if the date is outside the booking
+     * window.
+     */
+    public boolean openSurge(Train train, LocalDate travelDate) {
+        Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+        if (liveTrain == null || !liveTrain.getInventory().isBookable(travelDate)) return false;
+        SeatInventory inventory = liveTrain.getInventory().forDate(travelDate);
+        store.surges.putIfAbsent(BookingStore.surgeKey(liveTrain.getTrainNo(), travelDate), new SurgeQueue(travelDate, inventory));
+        return true;
+    }
+
+    /**
+     * Ends surge mode; requests already queued are still served.
+     */
+    public void closeSurge(Train train, LocalDate travelDate) {
+        store.surges.remove(BookingStore.surgeKey(train.getTrainNo(), travelDate));
+    }
+
+    public boolean isSurgeOpen(Train train, LocalDate travelDate) {
+        return store.surges.containsKey(BookingStore.surgeKey(train.getTrainNo(), travelDate));
+    }
+
+    /**
+     * Books any free seat on a train in surge mode. The request joins the train's fair queue, or is turned away
+     * at once if the stretch is sold out or the queue cannot serve it; see {@link SurgeQueue}. Blocks until the
+     * outcome is known.
+     */
+    public SurgeResult bookTatkal(Train train, String source, String destination, LocalDate travelDate, User user) {
+        long start = System.nanoTime();
         try {
-            TrainService trainService = new TrainService();
-            List<List<Integer>> seats = train.getSeats();
-            if (row >= 0 && row < seats.size() && seat >= 0 && seat < seats.get(row).size()) {
-                if (seats.get(row).get(seat) == 0) {
-                    seats.get(row).set(seat, 1);
-                    train.setSeats(seats);
-                    trainService.addOrUpdateTrain(train);
-
-                    Ticket ticket = new Ticket();
-                    ticket.setTrainNo(train.getTrainNo());
-                    ticket.setTrainName(train.getTrainName());
-                    ticket.setSource(train.getStations().get(0));
-                    ticket.setDestination(train.getStations().get(train.getStations().size() - 1));
-                    ticket.setPassengerName(user.getName());
-                    ticket.setTravelDate(travelDate);
-                    ticket.setRow(row);
-                    ticket.setSeat(seat);
-                    ticket.setTrain(train);
-
-                    user.getTicketsBooked().add(ticket);
-                    updateUserInList(user);
-                    saveUserListToFile();
-                    return ticket;
+            Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+            if (liveTrain == null) return SurgeResult.invalid("Unknown train " + train.getTrainNo());
+            SurgeQueue queue = store.surges.get(BookingStore.surgeKey(liveTrain.getTrainNo(), travelDate));
+            if (queue == null) return SurgeResult.invalid("Tatkal booking is not open for this train and date");
+            int fromStop = liveTrain.getStopIndex(source);
+            int toStop = liveTrain.getStopIndex(destination);
+            if (!queue.inventory().isValidJourney(fromStop, toStop)) {
+                return SurgeResult.invalid("Train does not run from " + source + " to " + destination);
+            }
+            Ticket ticket = newTicket(liveTrain, fromStop, toStop, travelDate, user);
+            ticket.setRow(-1);
+            ticket.setSeat(-1);
+            store.updateUserInList(user);
+            SurgeResult result = BookingStore.await(store.engine.bookInSurge(user.getKey(), ticket, queue, fromStop, toStop));
+            switch (result.status()) {
+                case BOOKED -> Metrics.BOOKED.increment();
+                case SOLD_OUT -> Metrics.SURGE_SOLD_OUT.increment();
+                case RETRY_LATER -> Metrics.SURGE_SHED.increment();
+                default -> {
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            Metrics.BOOK_ERRORS.increment();
+            return SurgeResult.retryLater(e.getMessage());
+        } finally {
+            Metrics.BOOK_TATKAL.recordSince(start);
+        }
+    }
+
+    // Seats of a train in surge mode are only sold through bookTatkal, so the queue stays fair.
+    private boolean inSurge(Train liveTrain, LocalDate travelDate) {
+        if (!store.surges.containsKey(BookingStore.surgeKey(liveTrain.getTrainNo(), travelDate))) return false;
+        System.out.println("Tatkal booking is open for this train and date: book through the tatkal queue.");
+        return true;
+    }
+
+    /**
+     * Books {@code count} seats, one ticket each, and lets the seat allocator choose them according to
+     * {@code preference}. The seats are claimed together, so either every ticket is returned or, if that many
+     * suitable seats are not free, none is booked and the list is empty.
+     */
+    public List<Ticket> autoBook(Train train, String source, String destination, LocalDate travelDate, int count,
+                                 SeatPreference preference, User user) {
+        Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+        if (liveTrain == null) {
+            System.out.println("Unknown train " + train.getTrainNo() + "!");
+            return Collections.emptyList();
+        }
+        if (count < 1 || inSurge(liveTrain, travelDate)) return Collections.emptyList();
+        SeatInventory inventory = seatsFor(liveTrain, source, destination, travelDate);
+        if (inventory == null) return Collections.emptyList();
+        if (count > inventory.getSeatCount()) { // checked before any ticket is built for it
+            System.out.println("The train only has " + inventory.getSeatCount() + " seats!");
+            return Collections.emptyList();
+        }
+        int fromStop = liveTrain.getStopIndex(source);
+        int toStop = liveTrain.getStopIndex(destination);
+
+        List<Ticket> tickets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) tickets.add(newTicket(liveTrain, fromStop, toStop, travelDate, user));
+        store.updateUserInList(user);
+        try {
+            List<Ticket> booked = BookingStore.await(store.engine.allocate(user.getKey(), tickets,
+                    preference == null ? SeatPreference.NONE : preference, inventory, fromStop, toStop));
+            if (booked.isEmpty()) System.out.println("Not enough seats matching your preferences!");
+            return booked;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Books several seats for {@code user} at once, e.g. for an agent. Every request is validated and its seat
+     * claimed in memory first; the bookings are then written to the log together, one write and one fsync per
+     * booking shard rather than one per ticket. Returns one result per request, in order. With
+     * {@link BatchMode#ALL_OR_NOTHING} either every request is booked or none is.
+     */
+    public List<BookingResult> bookBatch(List<BookingRequest> requests, BatchMode mode, User user) {
+        boolean allOrNothing = mode == BatchMode.ALL_OR_NOTHING;
+        BookingResult[] results = new BookingResult[requests.size()];
+        List<BookingEngine.Claim> claims = new ArrayList<>(requests.size());
+        List<Integer> claimed = new ArrayList<>(requests.size()); // request index of each claim
+        String invalid = null;
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest request = requests.get(i);
+            String error = validate(request);
+            if (error != null) {
+                results[i] = BookingResult.failed(request, error);
+                if (invalid == null) invalid = error;
+                continue;
+            }
+            Train liveTrain = store.trainService.getTrain(request.train().getTrainNo());
+            int fromStop = liveTrain.getStopIndex(request.source());
+            int toStop = liveTrain.getStopIndex(request.destination());
+            Ticket ticket = newTicket(liveTrain, fromStop, toStop, request.travelDate(), user);
+            ticket.setRow(request.hasSeat() ? request.row() : -1);
+            ticket.setSeat(request.hasSeat() ? request.seat() : -1);
+            claims.add(new BookingEngine.Claim(ticket, liveTrain.getInventory().forDate(request.travelDate()), fromStop, toStop));
+            claimed.add(i);
+        }
+        if (allOrNothing && invalid != null) return abortBatch(requests, results, "Batch not booked: " + invalid);
+        if (claims.isEmpty()) return Arrays.asList(results);
+
+        store.updateUserInList(user);
+        store.batchLock.readLock().lock();
+        try {
+            boolean[] booked = BookingStore.await(store.engine.bookBatch(user.getKey(), claims, allOrNothing));
+            boolean complete = true;
+            for (boolean b : booked) complete &= b;
+            for (int c = 0; c < claims.size(); c++) {
+                int i = claimed.get(c);
+                if (booked[c]) {
+                    results[i] = BookingResult.booked(requests.get(i), claims.get(c).ticket());
                 } else {
-                    System.out.println("Seat already booked!");
-                    return null;
+                    results[i] = BookingResult.failed(requests.get(i), allOrNothing && !complete
+                            ? "Batch not booked: a seat was not available" : "Seat not available");
                 }
-            } else {
-                System.out.println("Invalid seat index!");
-                return null;
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return abortBatch(requests, results, "Could not save the bookings: " + e.getMessage());
+        } finally {
+            store.batchLock.readLock().unlock();
+        }
+        return Arrays.asList(results);
+    }
+
+    // Error for a request that can never be booked as given, or null if it is bookable.
+    private String validate(BookingRequest request) {
+        if (request == null || request.train() == null) return "No train given";
+        Train liveTrain = store.trainService.getTrain(request.train().getTrainNo());
+        if (liveTrain == null) return "Unknown train " + request.train().getTrainNo();
+        if (store.surges.containsKey(BookingStore.surgeKey(liveTrain.getTrainNo(), request.travelDate()))) {
+            return "Tatkal booking is open for this train and date";
+        }
+        TrainInventory trainInventory = liveTrain.getInventory();
+        if (!trainInventory.isBookable(request.travelDate())) {
+            return "Bookings are open only for the next " + TrainInventory.BOOKING_WINDOW_DAYS + " days";
+        }
+        SeatInventory inventory = trainInventory.forDate(request.travelDate());
+        if (!inventory.isValidJourney(liveTrain.getStopIndex(request.source()), liveTrain.getStopIndex(request.destination()))) {
+            return "Train does not run from " + request.source() + " to " + request.destination();
+        }
+        if (request.hasSeat() && !inventory.isValidSeat(request.row(), request.seat())) return "Invalid seat index";
+        return null;
+    }
+
+    private static List<BookingResult> abortBatch(List<BookingRequest> requests, BookingResult[] results, String error) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null || results[i].isBooked()) results[i] = BookingResult.failed(requests.get(i), error);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Books any free seat from {@code source} to {@code destination}, or puts a ticket on the waitlist if the
+     * train is full. The returned ticket is waitlisted ({@link Ticket#isWaitlisted()}) in the second case and
+     * is seated automatically when a cancellation frees a seat. Returns null if the waitlist is full too.
+     */
+    public Ticket bookOrWaitlist(Train train, String source, String destination, LocalDate travelDate, User user) {
+        Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+        if (liveTrain == null) {
+            System.out.println("Unknown train " + train.getTrainNo() + "!");
+            return null;
+        }
+        if (inSurge(liveTrain, travelDate)) return null;
+        SeatInventory inventory = seatsFor(liveTrain, source, destination, travelDate);
+        if (inventory == null) return null;
+        int fromStop = liveTrain.getStopIndex(source);
+        int toStop = liveTrain.getStopIndex(destination);
+        Waitlist waitlist = liveTrain.getInventory().waitlist(travelDate);
+
+        Ticket ticket = newTicket(liveTrain, fromStop, toStop, travelDate, user);
+        store.updateUserInList(user);
+        try {
+            Ticket booked = BookingStore.await(store.engine.bookOrWaitlist(user.getKey(), ticket, inventory, waitlist,
+                    fromStop, toStop));
+            if (booked == null) System.out.println("Train and waitlist are full!");
+            return booked;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Current waitlist position of a ticket (1 = next to be seated), or 0 if it holds a seat or is unknown.
+     */
+    public long getWaitlistPosition(String ticketId) {
+        TicketIndex.Entry entry = store.ticketIndex.get(ticketId);
+        if (entry == null || !entry.ticket().isWaitlisted()) return 0;
+        Waitlist waitlist = store.waitlistOf(entry.ticket());
+        return waitlist == null ? 0 : waitlist.position(ticketId);
+    }
+
+    private static Ticket newTicket(Train train, int fromStop, int toStop, LocalDate travelDate, User user) {
+        Ticket ticket = new Ticket();
+        ticket.setTrainNo(train.getTrainNo());
+        ticket.setTrainName(train.getTrainName());
+        ticket.setSource(train.getStations().get(fromStop));
+        ticket.setDestination(train.getStations().get(toStop));
+        ticket.setPassengerName(user.getName());
+        ticket.setTravelDate(travelDate.toString());
+        return ticket;
+    }
+
+    /**
+     * Writes the reservation chart of every train leaving between {@code from} and {@code to} into {@code dir},
+     * one file per train and date; see {@link ChartPreparation}.
+     */
+    public ChartPreparation.Summary prepareCharts(LocalDateTime from, LocalDateTime to, Path dir) throws IOException {
+        return new ChartPreparation(store).prepare(from, to, dir);
+    }
+
+    /**
+     * 0/1 seat matrix for the stretch from {@code source} to {@code destination} on {@code travelDate},
+     * or null if the train does not run that stretch or the date is outside the booking window.
+     */
+    public List<List<Integer>> getSeatAvailability(Train train, String source, String destination, LocalDate travelDate) {
+        Train liveTrain = store.trainService.getTrain(train.getTrainNo());
+        if (liveTrain == null) return null;
+        SeatInventory inventory = seatsFor(liveTrain, source, destination, travelDate);
+        if (inventory == null) return null;
+        return inventory.toMatrix(liveTrain.getStopIndex(source), liveTrain.getStopIndex(destination));
+    }
+
+    private SeatInventory seatsFor(Train train, String source, String destination, LocalDate travelDate) {
+        TrainInventory trainInventory = train.getInventory();
+        if (!trainInventory.isBookable(travelDate)) {
+            System.out.println("Bookings are open only for the next " + TrainInventory.BOOKING_WINDOW_DAYS + " days!");
+            return null;
+        }
+        SeatInventory inventory = trainInventory.forDate(travelDate);
+        if (!inventory.isValidJourney(train.getStopIndex(source), train.getStopIndex(destination))) {
+            System.out.println("Train does not run from " + source + " to " + destination + "!");
+            return null;
+        }
+        return inventory;
+    }
+
     public Boolean cancelBooking(String ticketId) {
-        if (ticketId == null || ticketId.isEmpty() || user == null || user.getTicketsBooked() == null) return false;
-        boolean removed = user.getTicketsBooked().removeIf(ticket -> ticket.getTicketId().equals(ticketId));
-        if (removed) {
-            updateUserInList(user);
-            try { saveUserListToFile(); } catch (IOException e) { e.printStackTrace(); }
+        if (ticketId == null || ticketId.isEmpty() || user == null) return false;
+        TicketIndex.Entry entry = store.ticketIndex.get(ticketId);
+        if (entry == null || !entry.owner().equals(user.getKey())) return false;
+        long start = System.nanoTime();
+        boolean cancelled = cancel(entry);
+        Metrics.CANCEL.recordSince(start);
+        if (cancelled) Metrics.CANCELLED.increment();
+        return cancelled;
+    }
+
+    /**
+     * Cancels every ticket on {@code trainNo} for {@code travelDate} (every date if null), e.g. when the train
+     * itself is cancelled. Returns the number of tickets cancelled.
+     */
+    public int cancelTrain(String trainNo, LocalDate travelDate) {
+        List<CompletableFuture<Boolean>> cancellations = new ArrayList<>();
+        for (TicketIndex.Entry entry : store.ticketIndex.findByTrain(trainNo, travelDate)) {
+            cancellations.add(store.engine.cancel(entry));
+        }
+        int cancelled = 0;
+        for (CompletableFuture<Boolean> cancellation : cancellations) {
+            if (awaitCancel(cancellation)) cancelled++;
         }
-        return removed;
+        return cancelled;
     }
 
-    private void updateUserInList(User updatedUser) {
-        for (int i = 0; i < userList.size(); i++) {
-            if (userList.get(i).getUserId().equals(updatedUser.getUserId())) {
-                userList.set(i, updatedUser);
-                break;
-            }
+    // Runs on the ticket's shard: drops it from the index and the seat inventory, logs it, then its owner's list.
+    private boolean cancel(TicketIndex.Entry entry) {
+        return awaitCancel(store.engine.cancel(entry));
+    }
+
+    private static boolean awaitCancel(CompletableFuture<Boolean> cancellation) {
+        try {
+            return BookingStore.await(cancellation);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
     }
 }
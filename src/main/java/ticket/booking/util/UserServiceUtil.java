@@ -1,23 +1,42 @@
 package ticket.booking.util;
 
 import org.mindrot.jbcrypt.BCrypt;
+import ticket.booking.metrics.Metrics;
 
 public class UserServiceUtil {
 
-    private static final int WORK_FACTOR = 12; // configurable strength
+    // configurable strength; raise it with -Dbcrypt.workFactor and old hashes are upgraded on next login
+    private static final int WORK_FACTOR = Integer.getInteger("bcrypt.workFactor", 12);
 
     public static String hashPassword(String plainPassword) {
         if (plainPassword == null || plainPassword.isEmpty()) {
             throw new IllegalArgumentException("Password cannot be null or empty");
         }
-        return BCrypt.hashpw(plainPassword, BCrypt.gensalt(WORK_FACTOR));
+        long start = System.nanoTime();
+        String hashed = BCrypt.hashpw(plainPassword, BCrypt.gensalt(WORK_FACTOR));
+        Metrics.BCRYPT_HASH.recordSince(start);
+        return hashed;
     }
 
     public static boolean checkPassword(String plainPassword, String hashedPassword) {
         if (plainPassword == null || hashedPassword == null || hashedPassword.isEmpty()) {
             return false;
         }
-        return BCrypt.checkpw(plainPassword, hashedPassword);
+        long start = System.nanoTime();
+        boolean matches = BCrypt.checkpw(plainPassword, hashedPassword);
+        Metrics.BCRYPT_CHECK.recordSince(start);
+        return matches;
     }
-}
 
+    /**
+     * True if the hash was made with a different work factor than the current one ("$2a$12$..." has factor 12).
+     */
+    public static boolean needsRehash(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7) return false;
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6)) != WORK_FACTOR;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}